@@ -0,0 +1,176 @@
+package bench;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.imageio.ImageIO;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * The route overlays of a bundled map as xroads.OverlayStore held them before its palette:
+ * one full size ARGB int per pixel and per route, all in one direct buffer region, and
+ * collisions scanned on the first letter of the routes. Reference for the OverlayBenchmark
+ * and the MemoryProbe, along with the decoding of the overlays of the map file.
+ */
+public class ArgbOverlays {
+    private int _width;
+    private int _height;
+    // Map<route_name, overlay_index> (i.e. {<"AB", 0>, <"AC", 1>, ..}), sorted by name
+    private Map<String, Integer> _routeIndex;
+    // _routeIndex.size() overlays of _width x _height ARGB pixels each
+    private IntBuffer _pixels;
+    // intersection area of the map
+    private Rectangle _area;
+
+    /**
+     * Decodes the overlays of an enhanced map file, sorted by route name.
+     */
+    public static Map<String, BufferedImage> readOverlays(String mapPath) throws IOException {
+        JsonObject overlaysRaw = readMetadata(mapPath).getAsJsonObject("_mapOverlaysRaw");
+        Map<String, BufferedImage> overlays = new LinkedHashMap<String, BufferedImage>();
+        for (String route : new TreeSet<String>(overlaysRaw.keySet())) {
+            byte[] pngBytes = Base64.getDecoder().decode(overlaysRaw.get(route).getAsString());
+            overlays.put(route, ImageIO.read(new ByteArrayInputStream(pngBytes)));
+        }
+        return overlays;
+    }
+
+    /**
+     * Gets the intersection area of an enhanced map file, [centerTL, centerBR).
+     */
+    public static Rectangle readArea(String mapPath) throws IOException {
+        JsonObject metadata = readMetadata(mapPath);
+        JsonObject tl = metadata.getAsJsonObject("_centerTL");
+        JsonObject br = metadata.getAsJsonObject("_centerBR");
+        int x = tl.get("x").getAsInt();
+        int y = tl.get("y").getAsInt();
+        return new Rectangle(x, y, br.get("x").getAsInt() - x, br.get("y").getAsInt() - y);
+    }
+
+    private static JsonObject readMetadata(String mapPath) throws IOException {
+        byte[] rawBytes = Files.readAllBytes(Paths.get(mapPath));
+        int mapImageLen = ByteBuffer.wrap(rawBytes, rawBytes.length - 4, 4).getInt();
+        String rawJson = new String(rawBytes, mapImageLen, rawBytes.length - 4 - mapImageLen, StandardCharsets.UTF_8);
+        return JsonParser.parseString(rawJson).getAsJsonObject();
+    }
+
+    /**
+     * Loads the overlays of an enhanced map file into the direct region.
+     */
+    public ArgbOverlays(String mapPath) throws IOException {
+        Map<String, BufferedImage> overlays = readOverlays(mapPath);
+        BufferedImage first = overlays.values().iterator().next();
+        _width = first.getWidth();
+        _height = first.getHeight();
+        _area = readArea(mapPath);
+        _routeIndex = new LinkedHashMap<String, Integer>();
+        _pixels = ByteBuffer.allocateDirect(4 * _width * _height * overlays.size()).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int[] row = new int[_width];
+        for (Map.Entry<String, BufferedImage> overlay : overlays.entrySet()) {
+            _routeIndex.put(overlay.getKey(), _routeIndex.size());
+            for (int y = 0; y < _height; y++) {
+                overlay.getValue().getRGB(0, y, _width, 1, row, 0, _width);
+                _pixels.put(row);
+            }
+        }
+    }
+
+    public int getWidth() {
+        return _width;
+    }
+
+    public int getHeight() {
+        return _height;
+    }
+
+    public Rectangle getArea() {
+        return _area;
+    }
+
+    /**
+     * Gets the off-heap bytes held by the overlays.
+     */
+    public long getCapacity() {
+        return 4L * _pixels.capacity();
+    }
+
+    public int getRGB(int index, int x, int y) {
+        return _pixels.get((index * _height + y) * _width + x);
+    }
+
+    /**
+     * Indicates whether some of the given routes, of different first letters, have opaque
+     * pixels at the same location of the intersection area.
+     */
+    public boolean collide(String... routes) {
+        for (int x = _area.x; x < _area.x + _area.width; x++) {
+            for (int y = _area.y; y < _area.y + _area.height; y++) {
+                String lastOpaque = null;
+                for (String route : routes) {
+                    Integer index = _routeIndex.get(route);
+                    if (index == null || (getRGB(index, x, y) >> 24) == 0) {
+                        continue;
+                    }
+                    if (lastOpaque == null) {
+                        lastOpaque = route;
+                    }
+                    if (route.charAt(0) != lastOpaque.charAt(0)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Blends the given routes, in the given order, over an opaque ARGB image of the map size.
+     */
+    public void composite(int[] image, Collection<String> routes) {
+        int[] row = new int[_width];
+        for (String route : routes) {
+            Integer index = _routeIndex.get(route);
+            if (index == null) {
+                continue;
+            }
+            IntBuffer pixels = _pixels.duplicate();
+            pixels.position(index * _width * _height);
+            for (int y = 0; y < _height; y++) {
+                pixels.get(row);
+                int dst = y * _width;
+                for (int x = 0; x < _width; x++) {
+                    int src = row[x];
+                    int alpha = src >>> 24;
+                    if (alpha == 0xFF) {
+                        image[dst + x] = src;
+                    } else if (alpha != 0) {
+                        image[dst + x] = blend(src, image[dst + x], alpha);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int blend(int src, int dst, int alpha) {
+        int inverse = 0xFF - alpha;
+        int r = (((src >> 16) & 0xFF) * alpha + ((dst >> 16) & 0xFF) * inverse + 127) / 0xFF;
+        int g = (((src >> 8) & 0xFF) * alpha + ((dst >> 8) & 0xFF) * inverse + 127) / 0xFF;
+        int b = ((src & 0xFF) * alpha + (dst & 0xFF) * inverse + 127) / 0xFF;
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+}
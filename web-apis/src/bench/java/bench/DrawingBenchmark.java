@@ -0,0 +1,91 @@
+package bench;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import xroads.Drawing;
+import xroads.MapImage;
+
+/**
+ * Whole-image pixel processing on the largest bundled map, per-pixel versus bulk,
+ * and the scaling of the parallel mapPixels with the number of worker threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DrawingBenchmark {
+
+    /**
+     * ForkJoin pool with the given number of worker threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Pool {
+        @Param({"1", "2", "4", "8"})
+        public int _threads;
+
+        private ForkJoinPool _pool;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            _pool = new ForkJoinPool(_threads);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            _pool.shutdown();
+        }
+    }
+
+    private Drawing _drawing;
+    private int[] _pixels;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        MapImage mapImage = MapImage.load(Fixtures.mapPath("Sheridan"));
+        _drawing = new Drawing(mapImage.getImage());
+        _pixels = new int[_drawing.getWidth() * _drawing.getHeight()];
+    }
+
+    @Benchmark
+    public void invertPerPixel() {
+        for (int y = 0; y < _drawing.getHeight(); y++) {
+            for (int x = 0; x < _drawing.getWidth(); x++) {
+                java.awt.Color c = _drawing.getPixel(x, y);
+                _drawing.setPixel(x, y, new java.awt.Color(255 - c.getRed(), 255 - c.getGreen(), 255 - c.getBlue()));
+            }
+        }
+    }
+
+    @Benchmark
+    public void invertBulk() {
+        int w = _drawing.getWidth();
+        int h = _drawing.getHeight();
+        _drawing.getPixels(0, 0, w, h, _pixels);
+        for (int i = 0; i < _pixels.length; i++) {
+            _pixels[i] ^= 0x00FFFFFF;
+        }
+        _drawing.setPixels(0, 0, w, h, _pixels);
+    }
+
+    @Benchmark
+    public void invertMapPixels(Pool pool) {
+        _drawing.mapPixels(pixel -> pixel ^ 0x00FFFFFF, pool._pool);
+    }
+}
@@ -0,0 +1,38 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared fixtures for the benchmarks, built from the resources bundled with the sources.
+ * Benchmarks are expected to run from the web-apis folder.
+ */
+public class Fixtures {
+    public static final String RES_ROOT = "src/main/java/";
+    public static final String MAPS_DIR = RES_ROOT + "xroads/res/";
+    public static final String WORDLE_CSV = RES_ROOT + "wordle/res/wordle.csv";
+
+    /**
+     * Gets all the words in wordle.csv, upper case, in the file order.
+     */
+    public static List<String> words() throws IOException {
+        List<String> words = new ArrayList<String>();
+        for (String line : Files.readAllLines(Paths.get(WORDLE_CSV))) {
+            String word = line.split(",")[0].toUpperCase();
+            if (!word.equals("WORD")) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Gets the path of one of the bundled enhanced maps (i.e. "Ravenna").
+     */
+    public static String mapPath(String mapName) {
+        return MAPS_DIR + mapName + ".jpg";
+    }
+}
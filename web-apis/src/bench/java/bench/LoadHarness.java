@@ -0,0 +1,371 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EventListener;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+/**
+ * Starts the wordle and xroads servlets in an embedded Jetty on localhost and drives them
+ * with a mix of concurrent clients, then reports the throughput and latency percentiles of
+ * each command. Every client draws its choices from its own Random, seeded from --seed,
+ * such that runs on different commits replay the same requests. Requests answered with
+ * an error status (other than the 429 of a shed request) or failing are timed apart as "error".<p>
+ * Options (all optional):<br>
+ * --clients N : number of concurrent clients (default 8)<br>
+ * --warmup S : seconds of load before measuring (default 5)<br>
+ * --duration S : seconds of measured load (default 20)<br>
+ * --seed N : base seed of the clients (default 1234)<br>
+ * --mix cmd:weight,... : weights of the commands among
+ *   new, check, stats, close, collide, image (default new:1,check:6,stats:1,close:1,collide:4,image:1)<br>
+ * --mode blocking|async : the servlets' "async-mode" (default blocking)<br>
+ * --server-threads N : maximum number of container threads (default 200)<br>
+ * --slow-clients N : number of extra clients downloading large answers at a throttled rate,
+ *   not part of the measured mix (default 0)<br>
+ * --slow-rate KB/s : the download rate of each slow client (default 32)<br>
+ * --slow-command image|powerset : what the slow clients download, a map image or the
+ *   newline-delimited JSON of the power set of all the routes of a map (default image)<br>
+ * --admission on|off : the servlets' "admission" control (default on), shed requests
+ *   are timed apart as "shed"
+ */
+public class LoadHarness {
+    private static final String[] _COMMANDS = { "new", "check", "stats", "close", "collide", "image" };
+    private static final Pattern _SID = Pattern.compile("\"_sid\":\"([^\"]+)\"");
+
+    private String _baseUrl;
+    private int[] _weights;
+    private int _totalWeight;
+    private List<String> _words;
+    private Map<String, String[]> _mapRoutes;
+    private Map<String, Histogram> _latencies;
+    private int _port;
+    private int _slowRate;
+    private String _slowCommand;
+    private AtomicLong _slowBytes = new AtomicLong();
+    private volatile boolean _measuring;
+    private volatile boolean _stopping;
+
+    /**
+     * A request shed by the admission control.
+     */
+    private static class ShedException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * One simulated client, holding at most one wordle session at a time.
+     */
+    private class Client implements Runnable {
+        private Random _random;
+        private String _sid = null;
+
+        private Client(long seed) {
+            _random = new Random(seed);
+        }
+
+        @Override
+        public void run() {
+            while (!_stopping) {
+                String cmd = nextCommand();
+                String query = nextQuery(cmd);
+                long start = System.nanoTime();
+                try {
+                    String body = get(query);
+                    if (cmd.equals("new")) {
+                        Matcher sid = _SID.matcher(body);
+                        _sid = sid.find() ? sid.group(1) : null;
+                    } else if (cmd.equals("close")) {
+                        _sid = null;
+                    }
+                } catch (ShedException e) {
+                    cmd = "shed";
+                } catch (IOException e) {
+                    // failed requests are timed apart as "error", and a failed session is given up
+                    cmd = "error";
+                    if (query.startsWith("wordle")) {
+                        _sid = null;
+                    }
+                }
+                if (_measuring) {
+                    _latencies.get(cmd).recordValue((System.nanoTime() - start) / 1000);
+                }
+            }
+        }
+
+        /**
+         * Picks a random map and route, like the measured image requests, or with the
+         * "powerset" slow command a random map and all its routes.
+         */
+        String nextSlowQuery() {
+            List<String> mapNames = new ArrayList<String>(_mapRoutes.keySet());
+            String mapName = mapNames.get(_random.nextInt(mapNames.size()));
+            String[] routes = _mapRoutes.get(mapName);
+            if (_slowCommand.equals("powerset")) {
+                String[] powerRoutes = Arrays.copyOf(routes, Math.min(routes.length, xroads.MapImage.MAX_POWER_SET_ROUTES));
+                return "xroads?cmd=powerset&map=" + mapName + "&routes=" + String.join(",", powerRoutes);
+            }
+            return "xroads?cmd=image&map=" + mapName + "&routes=" + routes[_random.nextInt(routes.length)];
+        }
+
+        private String nextCommand() {
+            int pick = _random.nextInt(_totalWeight);
+            for (int i = 0; i < _COMMANDS.length; i++) {
+                pick -= _weights[i];
+                if (pick < 0) {
+                    // wordle commands other than "new" need a session
+                    return (_sid == null && i >= 1 && i <= 3) ? "new" : _COMMANDS[i];
+                }
+            }
+            return "stats";
+        }
+
+        private String nextQuery(String cmd) {
+            switch(cmd) {
+                case "new":
+                    return "wordle?cmd=new&name=load" + _random.nextInt(100);
+                case "check":
+                    return "wordle?cmd=check&sid=" + _sid + "&word=" + _words.get(_random.nextInt(_words.size()));
+                case "stats":
+                    return "wordle?cmd=stats&sid=" + _sid;
+                case "close":
+                    return "wordle?cmd=close&sid=" + _sid;
+                default:
+                    List<String> mapNames = new ArrayList<String>(_mapRoutes.keySet());
+                    String mapName = mapNames.get(_random.nextInt(mapNames.size()));
+                    String[] routes = _mapRoutes.get(mapName);
+                    int count = cmd.equals("image") ? 1 + _random.nextInt(2) : 2 + _random.nextInt(3);
+                    StringBuilder routeSet = new StringBuilder();
+                    for (int i = 0; i < count; i++) {
+                        routeSet.append(i > 0 ? "," : "").append(routes[_random.nextInt(routes.length)]);
+                    }
+                    return "xroads?cmd=" + cmd + "&map=" + mapName + "&routes=" + routeSet;
+            }
+        }
+    }
+
+    /**
+     * A client reading large answers no faster than _slowRate KB/s, through a small receive window
+     * such that the server can't push the whole image into the socket buffers at once.
+     */
+    private class SlowClient extends Client {
+        private SlowClient(long seed) {
+            super(seed);
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[1024];
+            while (!_stopping) {
+                try (Socket socket = new Socket()) {
+                    socket.setReceiveBufferSize(4096);
+                    socket.connect(new InetSocketAddress("localhost", _port));
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("GET /web-apis/" + nextSlowQuery() + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    InputStream in = socket.getInputStream();
+                    for (int n = in.read(buffer); n > 0 && !_stopping; n = in.read(buffer)) {
+                        if (_measuring) {
+                            _slowBytes.addAndGet(n);
+                        }
+                        Thread.sleep(1000L * n / 1024 / _slowRate);
+                    }
+                } catch (IOException e) {
+                    // the server may drop the connection, just try again
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private LoadHarness(String baseUrl, int port, int slowRate, String slowCommand, Map<String, Integer> mix) throws IOException {
+        _baseUrl = baseUrl;
+        _port = port;
+        _slowRate = slowRate;
+        _slowCommand = slowCommand;
+        _weights = new int[_COMMANDS.length];
+        for (int i = 0; i < _COMMANDS.length; i++) {
+            _weights[i] = mix.getOrDefault(_COMMANDS[i], 0);
+            _totalWeight += _weights[i];
+        }
+        _words = Fixtures.words();
+        _latencies = new LinkedHashMap<String, Histogram>();
+        for (String cmd : _COMMANDS) {
+            _latencies.put(cmd, new ConcurrentHistogram(TimeUnit.SECONDS.toMicros(60), 3));
+        }
+        _latencies.put("shed", new ConcurrentHistogram(TimeUnit.SECONDS.toMicros(60), 3));
+        _latencies.put("error", new ConcurrentHistogram(TimeUnit.SECONDS.toMicros(60), 3));
+    }
+
+    private String get(String query) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)URI.create(_baseUrl + query).toURL().openConnection();
+        int status = connection.getResponseCode();
+        InputStream in = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (in != null) {
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                body.write(buffer, 0, n);
+            }
+            in.close();
+        }
+        if (status == 429) {
+            throw new ShedException();
+        }
+        if (status >= 400) {
+            throw new IOException("HTTP " + status);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Waits for the application to be ready, its contexts loaded and warmed up,
+     * then fetches the routes of every map.
+     */
+    private void awaitReady() throws Exception {
+        // the readiness endpoint answers 503 until then
+        for (boolean ready = false; !ready; ) {
+            try {
+                get("ready");
+                ready = true;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        _mapRoutes = new LinkedHashMap<String, String[]>();
+        for (JsonElement mapName : JsonParser.parseString(get("xroads?cmd=maps")).getAsJsonObject().getAsJsonArray("_maps")) {
+            JsonArray routes = JsonParser.parseString(get("xroads?cmd=routes&map=" + mapName.getAsString()))
+                    .getAsJsonObject().getAsJsonArray("_routes");
+            List<String> routeNames = new ArrayList<String>();
+            for (JsonElement route : routes) {
+                routeNames.add(route.getAsString());
+            }
+            _mapRoutes.put(mapName.getAsString(), routeNames.toArray(new String[0]));
+        }
+    }
+
+    private void run(int clients, int slowClients, long seed, int warmup, int duration) throws Exception {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(new Client(seed + i), "load-client-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (int i = 0; i < slowClients; i++) {
+            Thread thread = new Thread(new SlowClient(seed + clients + i), "slow-client-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+        _measuring = true;
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+        _measuring = false;
+        _stopping = true;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (slowClients > 0) {
+            System.out.printf("Slow clients: %d %s at %d KB/s, read %.1f KB/s in total%n",
+                    slowClients, _slowCommand, _slowRate, _slowBytes.get() / 1024.0 / duration);
+        }
+
+        System.out.printf("%-8s %10s %10s %10s %10s %10s %10s%n", "cmd", "count", "ops/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        Histogram total = new Histogram(TimeUnit.SECONDS.toMicros(60), 3);
+        for (Map.Entry<String, Histogram> latency : _latencies.entrySet()) {
+            total.add(latency.getValue());
+            report(latency.getKey(), latency.getValue(), duration);
+        }
+        report("total", total, duration);
+    }
+
+    private static void report(String cmd, Histogram histogram, int duration) {
+        if (histogram.getTotalCount() == 0) {
+            return;
+        }
+        System.out.printf("%-8s %10d %10.1f %10.2f %10.2f %10.2f %10.2f%n", cmd,
+                histogram.getTotalCount(),
+                histogram.getTotalCount() / (double)duration,
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        int clients = Integer.parseInt(options.getOrDefault("clients", "8"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "20"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1234"));
+        String mode = options.getOrDefault("mode", "blocking");
+        String admission = options.getOrDefault("admission", "on");
+        int serverThreads = Integer.parseInt(options.getOrDefault("server-threads", "200"));
+        int slowClients = Integer.parseInt(options.getOrDefault("slow-clients", "0"));
+        int slowRate = Integer.parseInt(options.getOrDefault("slow-rate", "32"));
+        String slowCommand = options.getOrDefault("slow-command", "image");
+        Map<String, Integer> mix = new LinkedHashMap<String, Integer>();
+        for (String weight : options.getOrDefault("mix", "new:1,check:6,stats:1,close:1,collide:4,image:1").split(",")) {
+            mix.put(weight.split(":")[0], Integer.parseInt(weight.split(":")[1]));
+        }
+
+        Server server = new Server(new QueuedThreadPool(serverThreads));
+        ServerConnector connector = new ServerConnector(server);
+        connector.setHost("localhost");
+        connector.setPort(0);
+        server.addConnector(connector);
+        ServletContextHandler handler = new ServletContextHandler();
+        handler.setContextPath("/web-apis");
+        handler.setInitParameter("async-mode", mode);
+        handler.setInitParameter("admission", admission);
+        // the war's listener lives in the default package, out of reach of an import
+        handler.addEventListener((EventListener)Class.forName("Server").getDeclaredConstructor().newInstance());
+        handler.addServlet(wordle.Servlet.class, "/wordle").setAsyncSupported(true);
+        handler.addServlet(xroads.Servlet.class, "/xroads").setAsyncSupported(true);
+        handler.addServlet(metrics.Servlet.class, "/metrics");
+        handler.addServlet(trace.Servlet.class, "/trace");
+        handler.addServlet(web.Servlet.class, "/ready");
+        server.setHandler(handler);
+        server.start();
+        try {
+            LoadHarness harness = new LoadHarness("http://localhost:" + connector.getLocalPort() + "/web-apis/",
+                    connector.getLocalPort(), slowRate, slowCommand, mix);
+            harness.awaitReady();
+            System.out.printf("Load: %d clients, %ds warmup, %ds measured, seed %d, mix %s, %s mode, %d server threads, admission %s%n",
+                    clients, warmup, duration, seed, mix, mode, serverThreads, admission);
+            harness.run(clients, slowClients, seed, warmup, duration);
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import xroads.MapImage;
+
+/**
+ * Measures the memory held by loaded xroads maps. Each of the bundled maps is loaded a number of
+ * times and held, then full GCs are forced and the heap and direct memory in use are reported
+ * along with the average full GC pause. Each layout is measured in a JVM of its own:<br>
+ * argb : the base image and one decoded ARGB BufferedImage per route, all on the heap
+ *   (the layout of MapImage before its overlays moved to an OverlayStore)<br>
+ * argb-direct : the overlays as full size ARGB pixels in a direct region, without the
+ *   base image (the layout of OverlayStore before its palette, see ArgbOverlays)<br>
+ * store : MapImage as loaded by xroads.Context<br>
+ * Options (all optional):<br>
+ * --copies N : number of times each bundled map is loaded (default 8)<br>
+ * --gcs N : number of forced full GCs, the pause is averaged over them (default 5)<br>
+ * --jvm-args "..." : space separated options of the measured JVMs (default "-Xmx2g -XX:+UseG1GC")
+ */
+public class MemoryProbe {
+    private static final String[] _LAYOUTS = { "argb", "argb-direct", "store" };
+
+    /**
+     * Loads a map file into its base image and decoded overlays, without going through MapImage.
+     */
+    private static List<BufferedImage> loadArgb(File mapFile) throws IOException {
+        byte[] rawBytes = Files.readAllBytes(mapFile.toPath());
+        int mapImageLen = ByteBuffer.wrap(rawBytes, rawBytes.length - 4, 4).getInt();
+        String rawJson = new String(rawBytes, mapImageLen, rawBytes.length - 4 - mapImageLen, StandardCharsets.UTF_8);
+        JsonObject overlaysRaw = JsonParser.parseString(rawJson).getAsJsonObject().getAsJsonObject("_mapOverlaysRaw");
+        List<BufferedImage> images = new ArrayList<BufferedImage>();
+        images.add(ImageIO.read(new ByteArrayInputStream(rawBytes, 0, mapImageLen)));
+        for (Map.Entry<String, JsonElement> overlayRaw : overlaysRaw.entrySet()) {
+            byte[] pngBytes = Base64.getDecoder().decode(overlayRaw.getValue().getAsString());
+            images.add(ImageIO.read(new ByteArrayInputStream(pngBytes)));
+        }
+        return images;
+    }
+
+    private static long directUsed() {
+        for (BufferPoolMXBean bufferPool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (bufferPool.getName().equals("direct")) {
+                return bufferPool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    private static long gcTime() {
+        long gcTime = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcTime += Math.max(gc.getCollectionTime(), 0);
+        }
+        return gcTime;
+    }
+
+    /**
+     * Forces the given number of full GCs.
+     * @return the average pause of a full GC in milliseconds.
+     */
+    private static double fullGcs(int gcs) {
+        long gcTime = gcTime();
+        for (int i = 0; i < gcs; i++) {
+            System.gc();
+        }
+        return (double)(gcTime() - gcTime) / gcs;
+    }
+
+    /**
+     * Loads and measures one layout, printing a single line of results for the parent JVM.
+     */
+    private static void measure(String layout, int copies, int gcs) throws IOException {
+        File[] mapFiles = new File(Fixtures.MAPS_DIR).listFiles((dir, name) -> name.endsWith(".jpg"));
+        Arrays.sort(mapFiles);
+        fullGcs(gcs);
+        long heapBefore = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long directBefore = directUsed();
+        double gcBefore = fullGcs(gcs);
+
+        List<Object> maps = new ArrayList<Object>();
+        for (int copy = 0; copy < copies; copy++) {
+            for (File mapFile : mapFiles) {
+                if (layout.equals("argb")) {
+                    maps.add(loadArgb(mapFile));
+                } else if (layout.equals("argb-direct")) {
+                    maps.add(new ArgbOverlays(mapFile.getPath()));
+                } else {
+                    maps.add(MapImage.load(mapFile.getPath()));
+                }
+            }
+        }
+        double gcAfter = fullGcs(gcs);
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() - heapBefore;
+        long direct = directUsed() - directBefore;
+        System.out.printf("RESULT %d %d %d %.1f %.1f%n", maps.size(), heap >> 20, direct >> 20, gcBefore, gcAfter);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int copies = 8;
+        int gcs = 5;
+        String child = null;
+        List<String> jvmArgs = new ArrayList<String>(Arrays.asList("-Xmx2g", "-XX:+UseG1GC"));
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--copies")) {
+                copies = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--gcs")) {
+                gcs = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--jvm-args")) {
+                jvmArgs = Arrays.asList(args[i + 1].trim().split("\\s+"));
+            } else if (args[i].equals("--layout")) {
+                child = args[i + 1];
+            }
+        }
+        if (child != null) {
+            measure(child, copies, gcs);
+            return;
+        }
+
+        System.out.printf("Memory: %d copies of each bundled map, %d full GCs, jvm %s%n", copies, gcs, jvmArgs);
+        System.out.printf("%-12s %6s %10s %10s %14s %14s%n", "layout", "maps", "heap MB", "direct MB", "empty GC ms", "loaded GC ms");
+        for (String layout : _LAYOUTS) {
+            List<String> command = new ArrayList<String>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(jvmArgs);
+            command.add("-Djava.awt.headless=true");
+            command.add("-classpath");
+            command.add(System.getProperty("java.class.path"));
+            command.add(MemoryProbe.class.getName());
+            command.addAll(Arrays.asList("--layout", layout, "--copies", "" + copies, "--gcs", "" + gcs));
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            String result = null;
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                for (String line = out.readLine(); line != null; line = out.readLine()) {
+                    if (line.startsWith("RESULT ")) {
+                        result = line;
+                    } else {
+                        System.err.println(line);
+                    }
+                }
+            }
+            if (process.waitFor() != 0 || result == null) {
+                throw new IllegalStateException("Measuring the " + layout + " layout failed!");
+            }
+            String[] fields = result.split(" ");
+            System.out.printf("%-12s %6s %10s %10s %14s %14s%n", layout, fields[1], fields[2], fields[3], fields[4], fields[5]);
+        }
+    }
+}
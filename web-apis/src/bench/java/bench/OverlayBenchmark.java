@@ -0,0 +1,158 @@
+package bench;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import xroads.OverlayStore;
+
+/**
+ * Pixel scan collisions and compositing of the route overlays, on the maps bundled in
+ * xroads/res, per overlay layout:<br>
+ * argb : full size ARGB pixels, as before the palette (see ArgbOverlays)<br>
+ * palette : OverlayStore, one byte per pixel of the cropped overlays<br>
+ * palette16 : OverlayStore of the same overlays, their alpha dithered past 255 colors
+ *   but for their flat colors, such that their indices take two bytes per pixel<br>
+ * The collision scan is the one MapImage falls back to past 64 routes, over the intersection
+ * area. The off-heap bytes of each layout are given by MemoryProbe.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class OverlayBenchmark {
+    private static final int _SETS = 256;
+
+    @Param({"Ravenna", "Sheridan"})
+    public String _mapName;
+
+    @Param({"argb", "palette", "palette16"})
+    public String _layout;
+
+    private ArgbOverlays _argb;
+    private OverlayStore _store;
+    private Rectangle _area;
+    private String[][] _routeSets;
+    private List<String> _overlays;
+    private int[] _image;
+    private int _next;
+
+    /**
+     * Changes the low bits of the alpha of the pixels with their location, but for the pixels
+     * of the flat color (the most used one), leaving the color classes as they are.
+     */
+    private static BufferedImage dither(BufferedImage overlay) {
+        int width = overlay.getWidth();
+        int[] pixels = overlay.getRGB(0, 0, width, overlay.getHeight(), null, 0, width);
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (int pixel : pixels) {
+            if (pixel != 0) {
+                counts.merge(pixel, 1, Integer::sum);
+            }
+        }
+        int flatColor = counts.isEmpty() ? 0 : Collections.max(counts.entrySet(), Map.Entry.comparingByValue()).getKey();
+        for (int i = 0; i < pixels.length; i++) {
+            if (pixels[i] != flatColor && (pixels[i] >>> 24) >= 32) {
+                pixels[i] ^= ((i % width ^ i / width) & 31) << 24;
+            }
+        }
+        BufferedImage dithered = new BufferedImage(width, overlay.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        dithered.setRGB(0, 0, width, overlay.getHeight(), pixels, 0, width);
+        return dithered;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String mapPath = Fixtures.mapPath(_mapName);
+        Map<String, BufferedImage> overlays = ArgbOverlays.readOverlays(mapPath);
+        BufferedImage first = overlays.values().iterator().next();
+        if (_layout.equals("argb")) {
+            _argb = new ArgbOverlays(mapPath);
+        } else {
+            boolean wide = _layout.equals("palette16");
+            _store = OverlayStore.decode(first.getWidth(), first.getHeight(), overlays.keySet(),
+                    route -> wide ? dither(overlays.get(route)) : overlays.get(route));
+        }
+        _area = ArgbOverlays.readArea(mapPath);
+
+        // seeded sets of 2 to 4 routes
+        Random random = new Random(1234);
+        List<String> routes = new ArrayList<String>(overlays.keySet());
+        _routeSets = new String[_SETS][];
+        for (int i = 0; i < _SETS; i++) {
+            String[] routeSet = new String[2 + random.nextInt(3)];
+            for (int j = 0; j < routeSet.length; j++) {
+                routeSet[j] = routes.get(random.nextInt(routes.size()));
+            }
+            _routeSets[i] = routeSet;
+        }
+        _overlays = Arrays.asList(_routeSets[0]);
+        _image = new int[first.getWidth() * first.getHeight()];
+    }
+
+    /**
+     * The pixel scan of MapImage.collide, on the color classes of the store.
+     */
+    private boolean scan(String... routes) {
+        for (int x = _area.x; x < _area.x + _area.width; x++) {
+            for (int y = _area.y; y < _area.y + _area.height; y++) {
+                int firstColorClass = -1;
+                for (String route : routes) {
+                    int index = _store.indexOf(route);
+                    if (index < 0) {
+                        continue;
+                    }
+                    int colorClass = _store.getColorClass(index, x, y);
+                    if (colorClass >= 0) {
+                        if (firstColorClass < 0) {
+                            firstColorClass = colorClass;
+                        }
+                        if (colorClass != firstColorClass) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean collide() {
+        String[] routeSet = _routeSets[_next++ & (_SETS - 1)];
+        return (_argb != null) ? _argb.collide(routeSet) : scan(routeSet);
+    }
+
+    @Benchmark
+    public int[] composite() {
+        Arrays.fill(_image, 0xFF000000);
+        if (_argb != null) {
+            _argb.composite(_image, _overlays);
+        } else {
+            _store.composite(_image, _overlays);
+        }
+        return _image;
+    }
+}
@@ -0,0 +1,125 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the time to first request of the standalone launcher (web.Launcher). Each run starts
+ * the launcher in a new JVM and polls it, reporting the milliseconds from the process start to:
+ * listening, the first answered request, the first wordle session and the first xroads collision.
+ * Options (all optional):<br>
+ * --runs N : number of runs, the median of each step is reported (default 5)<br>
+ * --jvm-args "..." : space separated options of the launcher's JVM
+ *   (i.e. "-XX:+AutoCreateSharedArchive -XX:SharedArchiveFile=target/launcher.jsa")<br>
+ * any other option is given to the launcher (i.e. --xroads-preload lazy)
+ */
+public class StartupProbe {
+    private static final Pattern _PORT = Pattern.compile("Listening on port (\\d+)");
+    private static final String[] _STEPS = { "listening", "first response", "wordle ready", "xroads ready" };
+
+    private static int status(String url) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection)URI.create(url).toURL().openConnection();
+            int status = connection.getResponseCode();
+            connection.disconnect();
+            return status;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Starts the launcher and times its steps.
+     * @return the milliseconds from the process start to each of the _STEPS.
+     */
+    private static long[] run(List<String> command) throws Exception {
+        long[] times = new long[_STEPS.length];
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try {
+            CompletableFuture<Integer> port = new CompletableFuture<Integer>();
+            Thread reader = new Thread(() -> {
+                try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    // keep reading past the port, such that the launcher never blocks on its output
+                    for (String line = out.readLine(); line != null; line = out.readLine()) {
+                        Matcher matcher = _PORT.matcher(line);
+                        if (matcher.find()) {
+                            port.complete(Integer.parseInt(matcher.group(1)));
+                        }
+                    }
+                } catch (IOException e) {
+                    // the process is gone
+                }
+                port.complete(-1);
+            });
+            reader.setDaemon(true);
+            reader.start();
+            String baseUrl = "http://localhost:" + port.get(60, TimeUnit.SECONDS) + "/web-apis/";
+            times[0] = System.nanoTime() - start;
+            String[] queries = { "wordle?cmd=stats", "wordle?cmd=new", "xroads?cmd=collide&map=Ravenna&routes=AB,CD" };
+            for (int step = 1; step < _STEPS.length; step++) {
+                // the first response may be an error, the other steps wait for a success
+                while (step == 1 ? status(baseUrl + queries[0]) < 0 : status(baseUrl + queries[step - 1]) != 200) {
+                    Thread.sleep(2);
+                }
+                times[step] = System.nanoTime() - start;
+            }
+        } finally {
+            process.destroy();
+            process.waitFor(10, TimeUnit.SECONDS);
+        }
+        for (int step = 0; step < times.length; step++) {
+            times[step] = TimeUnit.NANOSECONDS.toMillis(times[step]);
+        }
+        return times;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = 5;
+        List<String> jvmArgs = new ArrayList<String>();
+        List<String> launcherArgs = new ArrayList<String>(Arrays.asList("--port", "0"));
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--runs")) {
+                runs = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--jvm-args")) {
+                jvmArgs.addAll(Arrays.asList(args[i + 1].trim().split("\\s+")));
+            } else {
+                launcherArgs.add(args[i]);
+                launcherArgs.add(args[i + 1]);
+            }
+        }
+        List<String> command = new ArrayList<String>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-classpath");
+        command.add(System.getProperty("java.class.path"));
+        command.add("web.Launcher");
+        command.addAll(launcherArgs);
+
+        long[][] times = new long[_STEPS.length][runs];
+        for (int i = 0; i < runs; i++) {
+            long[] run = run(command);
+            for (int step = 0; step < _STEPS.length; step++) {
+                times[step][i] = run[step];
+            }
+        }
+        System.out.printf("Startup: %d runs, jvm %s, launcher %s%n", runs, jvmArgs, launcherArgs);
+        System.out.printf("%-16s %10s %10s %10s%n", "step", "min ms", "median ms", "max ms");
+        for (int step = 0; step < _STEPS.length; step++) {
+            Arrays.sort(times[step]);
+            System.out.printf("%-16s %10d %10d %10d%n", _STEPS[step], times[step][0], times[step][runs / 2], times[step][runs - 1]);
+        }
+    }
+}
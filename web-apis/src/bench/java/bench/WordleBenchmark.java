@@ -0,0 +1,135 @@
+package bench;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import metrics.Registry;
+import trace.Tracer;
+
+import wordle.Answer;
+import wordle.Context;
+import wordle.Dictionary;
+import wordle.Session;
+import wordle.Word;
+
+/**
+ * Hot paths of the wordle API, on the full wordle.csv dictionary.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class WordleBenchmark {
+    private static final int _PAIRS = 1024;
+
+    private Context _context;
+    private Dictionary _dictionary;
+    private Word[] _secrets;
+    private String[] _guesses;
+    private String[] _sids;
+    private Session _session;
+    private Answer _answer;
+    private int _next;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        _context = new Context(Map.of(), new Registry(), new Tracer(1024));
+        _context.runInitialize();
+        _dictionary = _context.getDictionary();
+
+        // seeded, such that runs on different commits measure the same inputs
+        Random random = new Random(1234);
+        List<String> words = Fixtures.words();
+        _secrets = new Word[_PAIRS];
+        _guesses = new String[_PAIRS];
+        for (int i = 0; i < _PAIRS; i++) {
+            _secrets[i] = new Word(words.get(random.nextInt(words.size())) + ",0.0,");
+            _guesses[i] = words.get(random.nextInt(words.size()));
+        }
+
+        _session = new Session("bench", _secrets[0]);
+        for (int i = 0; i < 6; i++) {
+            _session.checkWord(_guesses[i]);
+        }
+        _answer = new Answer().new Stats(_session);
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        _context.reset();
+        _sids = new String[_PAIRS];
+        for (int i = 0; i < _PAIRS; i++) {
+            _sids[i] = _context.newSession("bench").getId();
+        }
+    }
+
+    @Benchmark
+    public String getHints() {
+        int i = _next++ & (_PAIRS - 1);
+        return _secrets[i].getHints(_guesses[i]);
+    }
+
+    @Benchmark
+    public int getPattern() {
+        int i = _next++ & (_PAIRS - 1);
+        return _secrets[i].getPattern(_guesses[i]);
+    }
+
+    /**
+     * First check of an adversarial session: partitions the whole dictionary.
+     */
+    @Benchmark
+    public boolean adversarialFirstCheck() {
+        Session session = new Session("bench", _dictionary);
+        return session.checkWord(_guesses[_next++ & (_PAIRS - 1)]);
+    }
+
+    /**
+     * A whole adversarial game of 6 checks, the first one being most of it.
+     */
+    @Benchmark
+    public int adversarialGame() {
+        Session session = new Session("bench", _dictionary);
+        int i = _next++;
+        for (int check = 0; check < 6; check++) {
+            session.checkWord(_guesses[(i + check) & (_PAIRS - 1)]);
+        }
+        return session.getCandidateCount();
+    }
+
+    @Benchmark
+    public Session newSession() {
+        return _context.newSession("bench");
+    }
+
+    @Benchmark
+    public Session getSession() {
+        return _context.getSession(_sids[_next++ & (_PAIRS - 1)]);
+    }
+
+    @Benchmark
+    public String answerToString() {
+        return _answer.toString();
+    }
+
+    @Benchmark
+    public List<String> getGuesses() {
+        return _session.getGuesses();
+    }
+}
@@ -0,0 +1,80 @@
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import xroads.MapImage;
+
+/**
+ * Hot paths of the xroads maps, on the maps bundled in xroads/res.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class XRoadsBenchmark {
+    private static final int _SETS = 256;
+
+    @Param({"Ravenna", "Sheridan"})
+    public String _mapName;
+
+    private MapImage _mapImage;
+    private String[][] _routeSets;
+    private List<String> _overlays;
+    private int _next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        _mapImage = MapImage.load(Fixtures.mapPath(_mapName));
+        _mapImage.prewarm();
+
+        // seeded sets of 2 to 4 routes
+        Random random = new Random(1234);
+        List<String> routes = new ArrayList<String>(_mapImage.getRoutes());
+        routes.sort(null);
+        _routeSets = new String[_SETS][];
+        for (int i = 0; i < _SETS; i++) {
+            String[] routeSet = new String[2 + random.nextInt(3)];
+            for (int j = 0; j < routeSet.length; j++) {
+                routeSet[j] = routes.get(random.nextInt(routes.size()));
+            }
+            _routeSets[i] = routeSet;
+        }
+        _overlays = Arrays.asList(_routeSets[0]);
+    }
+
+    @Benchmark
+    public boolean collide() {
+        return _mapImage.collide(_routeSets[_next++ & (_SETS - 1)]);
+    }
+
+    @Benchmark
+    public BufferedImage getImage() {
+        return _mapImage.getImage(_overlays);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public MapImage load() throws Exception {
+        return MapImage.load(Fixtures.mapPath(_mapName));
+    }
+}
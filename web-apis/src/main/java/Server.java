@@ -1,6 +1,12 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletContextEvent;
 import jakarta.servlet.ServletContextListener;
 import jakarta.servlet.annotation.WebListener;
+import web.Application;
 
 @WebListener
 public class Server implements ServletContextListener {
@@ -11,10 +17,17 @@ public class Server implements ServletContextListener {
     public void contextInitialized(ServletContextEvent event) {
         // create a custom-made context instance and attach it to the
         // platform's servlet context, under the "context" attribute name.
-        wordle.Context ctxWordle = new wordle.Context(event.getServletContext());
-        event.getServletContext().setAttribute("context-wordle", ctxWordle);
-        xroads.Context ctxXRoads = new xroads.Context(event.getServletContext());
-        event.getServletContext().setAttribute("context-xroads", ctxXRoads);
+        ServletContext servletContext = event.getServletContext();
+        Map<String, String> params = new HashMap<String, String>();
+        for (String name : Collections.list(servletContext.getInitParameterNames())) {
+            params.put(name, servletContext.getInitParameter(name));
+        }
+        Application application = new Application(params);
+        servletContext.setAttribute("context-application", application);
+        servletContext.setAttribute("context-metrics", application.getRegistry());
+        servletContext.setAttribute("context-trace", application.getTracer());
+        async.Dispatcher dispatcher = new async.Dispatcher(params, application.getRegistry());
+        servletContext.setAttribute("context-dispatcher", dispatcher);
     }
     
     /**
@@ -22,9 +35,9 @@ public class Server implements ServletContextListener {
      */
     @Override
     public void contextDestroyed(ServletContextEvent event) {
-        wordle.Context ctxWordle = (wordle.Context)event.getServletContext().getAttribute("context-wordle");
-        ctxWordle.closing();
-        xroads.Context ctxXRoads = (xroads.Context)event.getServletContext().getAttribute("context-xroads");
-        ctxXRoads.closing();
+        async.Dispatcher dispatcher = (async.Dispatcher)event.getServletContext().getAttribute("context-dispatcher");
+        dispatcher.closing();
+        Application application = (Application)event.getServletContext().getAttribute("context-application");
+        application.closing();
     }
 }
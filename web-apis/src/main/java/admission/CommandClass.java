@@ -0,0 +1,27 @@
+package admission;
+
+/**
+ * The classes of commands sharing a concurrency limit, each command of the APIs
+ * being classified by its Endpoint (see web.Endpoint#getCommandClass).
+ */
+public enum CommandClass {
+    // cheap lookups and checks
+    QUERY(1),
+    // commands creating server state, i.e. the wordle sessions
+    SESSION(2),
+    // CPU bound xroads renderings, batches and power sets
+    RENDER(4);
+
+    private int _cost;
+
+    private CommandClass(int cost) {
+        _cost = cost;
+    }
+
+    /**
+     * Gets the number of tokens a command of this class takes from its client's bucket.
+     */
+    public int getCost() {
+        return _cost;
+    }
+}
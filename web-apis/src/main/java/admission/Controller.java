@@ -0,0 +1,202 @@
+package admission;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import metrics.Counter;
+import metrics.Registry;
+import web.Exchange;
+
+/**
+ * Admits the requests of the wordle and xroads APIs before they are handled, or sheds them
+ * with a 429 status and a Retry-After header. Each client has a token bucket, and each
+ * command class a limited number of slots: a request waits for a slot no longer than the
+ * queue-latency target, and is shed right away if its estimated wait is already over it.
+ * Under overload, clients then get a fast 429 rather than a slow answer, and a spike of
+ * renderings doesn't hold back the cheap requests queued behind it.
+ */
+public class Controller {
+    private static final byte[] _SHED_ANSWER = "{\"_error\":\"##Err##: Too many requests!\"}".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The slots of one command class, along with the average time they are held.
+     */
+    private static class Lane {
+        private int _limit;
+        private Semaphore _slots;
+        private AtomicLong _holdNanos = new AtomicLong();
+        private Counter _shedQueue;
+        private Counter _shedRate;
+
+        private Lane(int limit) {
+            _limit = limit;
+            // fair, such that the requests get their slots in arrival order
+            _slots = new Semaphore(limit, true);
+        }
+
+        /**
+         * Estimates how long a request arriving now waits for a slot.
+         */
+        private long estimateWaitNanos() {
+            int ahead = _slots.getQueueLength() + 1 - _slots.availablePermits();
+            return (ahead > 0) ? ahead * _holdNanos.get() / _limit : 0;
+        }
+    }
+
+    /**
+     * The slot held by an admitted request, to be released once its response is computed,
+     * such that a slow client reading the response doesn't hold the slot.
+     */
+    public class Permit {
+        private Lane _lane;
+        private long _startNanos;
+
+        private Permit(Lane lane) {
+            _lane = lane;
+            _startNanos = System.nanoTime();
+        }
+
+        public void release() {
+            if (_lane == null) {
+                return;
+            }
+            long held = System.nanoTime() - _startNanos;
+            // moving average over the last few requests
+            _lane._holdNanos.getAndUpdate(average -> average + (held - average) / 8);
+            _lane._slots.release();
+            _lane = null;
+        }
+
+        /**
+         * Sheds the admitted request after all, when it can't be run (i.e. the compute queue
+         * of the ASYNC mode is full): its slot is released, and it gets the 429 answer of the
+         * requests shed on admission, counted along with them.
+         */
+        public void shed(Exchange exchange) throws IOException {
+            long retryNanos = _queueTargetNanos;
+            if (_lane != null) {
+                _lane._shedQueue.inc();
+                retryNanos = Math.max(_lane.estimateWaitNanos(), _queueTargetNanos);
+                // released without counting in the hold time, the slot was held for nothing
+                _lane._slots.release();
+                _lane = null;
+            }
+            Controller.shed(exchange, retryNanos);
+        }
+    }
+
+    private boolean _enabled;
+    private long _queueTargetNanos;
+    private Lane[] _lanes;
+    private double _clientRate;
+    private double _clientBurst;
+    private Map<String, TokenBucket> _buckets;
+
+    /**
+     * @param params - the settings, i.e. the web.xml context-params or the Launcher options.
+     */
+    public Controller(Map<String, String> params, Registry registry) {
+        // optional settings: "admission" (on|off), "admission-queue-ms", "admission-limit-<class>",
+        // "admission-client-rate" (tokens per second, 0 for no limit), "admission-client-burst" and "admission-clients".
+        // Per-client limiting is off unless "admission-client-rate" is set: the clients behind a proxy or a NAT
+        // share one address, and a limit fit for them all depends on the deployment.
+        _enabled = !"off".equalsIgnoreCase(params.get("admission"));
+        _queueTargetNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(params.getOrDefault("admission-queue-ms", "100")));
+        int cores = Runtime.getRuntime().availableProcessors();
+        int[] defaultLimits = { 64, 8, 2 * cores };
+        _lanes = new Lane[CommandClass.values().length];
+        for (CommandClass commandClass : CommandClass.values()) {
+            String name = commandClass.name().toLowerCase();
+            String limit = params.get("admission-limit-" + name);
+            Lane lane = new Lane((limit != null) ? Integer.parseInt(limit) : defaultLimits[commandClass.ordinal()]);
+            lane._shedQueue = registry.counter("admission_shed_total", "Number of requests shed.", "class", name, "reason", "queue");
+            lane._shedRate = registry.counter("admission_shed_total", "Number of requests shed.", "class", name, "reason", "rate");
+            registry.gauge("admission_active", "Number of requests holding a slot.",
+                    () -> lane._limit - lane._slots.availablePermits(), "class", name);
+            registry.gauge("admission_queued", "Number of requests waiting for a slot.",
+                    () -> lane._slots.getQueueLength(), "class", name);
+            _lanes[commandClass.ordinal()] = lane;
+        }
+        _clientRate = Double.parseDouble(params.getOrDefault("admission-client-rate", "0"));
+        String burst = params.get("admission-client-burst");
+        _clientBurst = Math.max(CommandClass.RENDER.getCost(), (burst != null) ? Double.parseDouble(burst) : 2 * _clientRate);
+        int maxClients = Integer.parseInt(params.getOrDefault("admission-clients", "65536"));
+        // the least recently seen clients are forgotten first, they come back with a full bucket
+        _buckets = Collections.synchronizedMap(new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+                return size() > maxClients;
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    /**
+     * Admits a request of the given class, waiting for a slot if needed.
+     * @return the permit to release once the response is computed, or null if the request
+     * is shed, its exchange then holding the 429 answer.
+     */
+    public Permit admit(CommandClass commandClass, Exchange exchange) throws IOException {
+        return admit(commandClass, exchange, true);
+    }
+
+    /**
+     * Admits a request of the given class only if a slot is free right away, for the callers
+     * that must not block (i.e. the container threads of the ASYNC mode, the compute pool
+     * then queueing the admitted requests).
+     * @return the permit to release once the response is computed, or null if the request
+     * is shed, its exchange then holding the 429 answer.
+     */
+    public Permit tryAdmit(CommandClass commandClass, Exchange exchange) throws IOException {
+        return admit(commandClass, exchange, false);
+    }
+
+    private Permit admit(CommandClass commandClass, Exchange exchange, boolean wait) throws IOException {
+        if (!_enabled) {
+            return new Permit(null);
+        }
+        Lane lane = _lanes[commandClass.ordinal()];
+        if (_clientRate > 0) {
+            long now = System.nanoTime();
+            TokenBucket bucket = _buckets.computeIfAbsent(exchange.getRemoteAddress(), client -> new TokenBucket(_clientBurst, now));
+            long waitNanos = bucket.take(commandClass.getCost(), _clientRate, _clientBurst, now);
+            if (waitNanos > 0) {
+                lane._shedRate.inc();
+                shed(exchange, waitNanos);
+                return null;
+            }
+        }
+        long waitNanos = lane.estimateWaitNanos();
+        // with no wait, still a timeout: the plain tryAcquire() would barge ahead of the waiting requests
+        long timeoutNanos = wait ? _queueTargetNanos : 0;
+        try {
+            if (waitNanos <= _queueTargetNanos && lane._slots.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                return new Permit(lane);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lane._shedQueue.inc();
+        shed(exchange, Math.max(waitNanos, _queueTargetNanos));
+        return null;
+    }
+
+    private static void shed(Exchange exchange, long retryNanos) throws IOException {
+        exchange.setStatus(429);
+        exchange.setHeader("Retry-After", String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(retryNanos + 999999999))));
+        exchange.setContentType("application/json");
+        exchange.setContentLength(_SHED_ANSWER.length);
+        exchange.getOutputStream().write(_SHED_ANSWER);
+    }
+}
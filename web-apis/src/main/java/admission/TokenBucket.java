@@ -0,0 +1,32 @@
+package admission;
+
+/**
+ * The request budget of one client: tokens refill at a steady rate, up to a burst,
+ * and each request takes the tokens of its command class.
+ */
+class TokenBucket {
+    private double _tokens;
+    private long _lastNanos;
+
+    TokenBucket(double burst, long nowNanos) {
+        _tokens = burst;
+        _lastNanos = nowNanos;
+    }
+
+    /**
+     * Takes the given tokens, if the bucket holds them.
+     * @param rate - the tokens refilled per second.
+     * @return 0 if the tokens were taken, or else the nanoseconds until the bucket holds them.
+     */
+    synchronized long take(int tokens, double rate, double burst, long nowNanos) {
+        // nowNanos is read before the lock, a racing take may have moved past it already
+        long elapsed = Math.max(0, nowNanos - _lastNanos);
+        _tokens = Math.min(burst, _tokens + elapsed * rate / 1e9);
+        _lastNanos = Math.max(_lastNanos, nowNanos);
+        if (_tokens >= tokens) {
+            _tokens -= tokens;
+            return 0;
+        }
+        return (long)Math.ceil((tokens - _tokens) * 1e9 / rate);
+    }
+}
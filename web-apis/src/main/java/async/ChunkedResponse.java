@@ -0,0 +1,149 @@
+package async;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response given to a handler running on the compute pool. Headers and status go straight to
+ * the container's response, while the body is cut into chunks handed over to the I/O thread,
+ * such that the compute thread never blocks on the client. The chunks queue up without bound:
+ * the body of a slow client waits on the heap, the size of the largest answers (renderings,
+ * tiles, batches and power sets) being capped, and the number of them computed at once being
+ * bounded by the admission slots.
+ */
+class ChunkedResponse extends HttpServletResponseWrapper {
+    private static final int _CHUNK_SIZE = 64 * 1024;
+    private static final byte[] _END = new byte[0];
+
+    private BlockingQueue<byte[]> _chunks;
+    private ByteArrayOutputStream _buffer;
+    private ServletOutputStream _out;
+    private PrintWriter _writer;
+    private volatile boolean _failed;
+
+    ChunkedResponse(HttpServletResponse response) {
+        super(response);
+        _chunks = new LinkedBlockingQueue<byte[]>();
+        _buffer = new ByteArrayOutputStream();
+        _out = new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                _buffer.write(b);
+                if (_buffer.size() >= _CHUNK_SIZE) {
+                    pass();
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (len >= _CHUNK_SIZE) {
+                    // large writes (i.e. png renderings) skip the buffer
+                    pass();
+                    offer(Arrays.copyOfRange(b, off, off + len));
+                    return;
+                }
+                _buffer.write(b, off, len);
+                if (_buffer.size() >= _CHUNK_SIZE) {
+                    pass();
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                pass();
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new IllegalStateException("Non-blocking writes are not supported!");
+            }
+        };
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return _out;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (_writer == null) {
+            _writer = new PrintWriter(new OutputStreamWriter(_out, getCharacterEncoding()));
+        }
+        return _writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (_writer != null) {
+            _writer.flush();
+        }
+        pass();
+    }
+
+    private void pass() throws IOException {
+        if (_buffer.size() > 0) {
+            offer(_buffer.toByteArray());
+            _buffer.reset();
+        }
+    }
+
+    /**
+     * Queues a chunk for the I/O thread, without ever waiting for it.
+     * @throws IOException - the client is gone, the rest of the body is of no use.
+     */
+    private void offer(byte[] chunk) throws IOException {
+        if (_failed) {
+            throw new IOException("Client disconnected!");
+        }
+        _chunks.add(chunk);
+    }
+
+    /**
+     * Called on the compute thread once the handler is done, to pass the rest of the body.
+     */
+    void finish() {
+        try {
+            flushBuffer();
+            offer(_END);
+        } catch (IOException e) {
+            // the client is gone, nothing is waiting for the end of the body
+        }
+    }
+
+    /**
+     * Called on the I/O thread, writes the chunks to the container's response as
+     * they come, until the handler is done or the client disconnects.
+     */
+    void writeOut() {
+        try {
+            ServletOutputStream out = getResponse().getOutputStream();
+            for (byte[] chunk = _chunks.take(); chunk != _END; chunk = _chunks.take()) {
+                out.write(chunk);
+                out.flush();
+            }
+        } catch (IOException e) {
+            _failed = true;
+            _chunks.clear();
+        } catch (InterruptedException e) {
+            _failed = true;
+            _chunks.clear();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package async;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import metrics.Registry;
+
+/**
+ * Runs the requests of the wordle and xroads servlets, either on the container thread
+ * (BLOCKING mode) or off it (ASYNC mode). In ASYNC mode the container thread only starts
+ * an AsyncContext: the request is handled on a bounded compute pool, sized to the cores,
+ * while its response is written to the client by a virtual thread. The compute thread hands
+ * the body over as it goes and never waits for the client, so that a slow client holds
+ * neither a container thread nor a compute thread, only a parked virtual thread and the
+ * part of its response not read yet.
+ */
+public class Dispatcher {
+
+    public enum Mode {
+        BLOCKING,
+        ASYNC
+    }
+
+    /**
+     * The request handling code of a servlet.
+     */
+    public interface Handler {
+        void handle(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException;
+    }
+
+    private Mode _mode;
+    private ThreadPoolExecutor _compute;
+    private ExecutorService _io;
+
+    /**
+     * @param params - the web.xml context-params.
+     */
+    public Dispatcher(Map<String, String> params, Registry registry) {
+        // optional web.xml context-params: "async-mode" (blocking|async), "async-compute-threads" and "async-compute-queue"
+        String mode = params.get("async-mode");
+        _mode = (mode != null) ? Mode.valueOf(mode.toUpperCase()) : Mode.BLOCKING;
+        if (_mode == Mode.ASYNC) {
+            String threads = params.get("async-compute-threads");
+            int nThreads = (threads != null) ? Integer.parseInt(threads) : Runtime.getRuntime().availableProcessors();
+            String queue = params.get("async-compute-queue");
+            int queueSize = (queue != null) ? Integer.parseInt(queue) : 1024;
+            _compute = new ThreadPoolExecutor(nThreads, nThreads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), r -> {
+                        Thread t = new Thread(r, "async-compute");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            _io = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("async-io-", 0).factory());
+            registry.gauge("async_compute_queue", "Number of requests waiting for a compute thread.", () -> _compute.getQueue().size());
+            registry.gauge("async_compute_active", "Number of requests being computed.", () -> _compute.getActiveCount());
+        }
+    }
+
+    public Mode getMode() {
+        return _mode;
+    }
+
+    /**
+     * Handles a request according to the dispatcher's mode.
+     * @param handler - the request handling code.
+     * @param onComputed - runs once the handler is done, before its response is written out
+     * in ASYNC mode (i.e. to release the resources the computation held).
+     * @param onRejected - answers the request in place of the handler when the compute queue
+     * of the ASYNC mode is full (i.e. to shed it as the admission control does).
+     * @param onComplete - runs once the handler is done and the response written,
+     * while the response can still be inspected.
+     */
+    public void dispatch(HttpServletRequest request, HttpServletResponse response, Handler handler,
+            Runnable onComputed, Handler onRejected, Runnable onComplete) throws ServletException, IOException {
+        if (_mode == Mode.BLOCKING) {
+            try {
+                handler.handle(request, response);
+            } finally {
+                onComputed.run();
+                onComplete.run();
+            }
+            return;
+        }
+
+        AsyncContext asyncContext = request.startAsync();
+        // responses to slow clients may take long, a lost client fails the writes instead
+        asyncContext.setTimeout(0);
+        ChunkedResponse chunkedResponse = new ChunkedResponse(response);
+        try {
+            _compute.execute(() -> {
+                try {
+                    handler.handle(request, chunkedResponse);
+                } catch (ServletException | IOException | RuntimeException e) {
+                    if (!response.isCommitted()) {
+                        response.setStatus(500);
+                    }
+                } finally {
+                    chunkedResponse.finish();
+                    onComputed.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            try {
+                onRejected.handle(request, response);
+            } finally {
+                onComputed.run();
+                onComplete.run();
+                asyncContext.complete();
+            }
+            return;
+        }
+        _io.execute(() -> {
+            chunkedResponse.writeOut();
+            onComplete.run();
+            asyncContext.complete();
+        });
+    }
+
+    public void closing() {
+        if (_mode == Mode.ASYNC) {
+            _compute.shutdownNow();
+            _io.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency histogram and error counter for each of the commands of an API, created
+ * up front such that a request only looks up its command and records into it.
+ */
+public class CommandMetrics {
+
+    public static class Command {
+        private String _name;
+        private Histogram _latency;
+        private Counter _errors;
+
+        private Command(Registry registry, String api, String cmd) {
+            _name = cmd;
+            _latency = registry.histogram(api + "_request_seconds", "Latency of the " + api + " requests.", "cmd", cmd);
+            _errors = registry.counter(api + "_errors_total", "Number of failed " + api + " requests.", "cmd", cmd);
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        /**
+         * Records one request of this command.
+         * @param startNanos - the System.nanoTime() when the request started.
+         * @param failed - whether the request failed.
+         */
+        public void record(long startNanos, boolean failed) {
+            _latency.recordSince(startNanos);
+            if (failed) {
+                _errors.inc();
+            }
+        }
+    }
+
+    // case insensitive, such that looking up a command doesn't allocate a lower case copy
+    private Map<String, Command> _commands = new TreeMap<String, Command>(String.CASE_INSENSITIVE_ORDER);
+    private Command _other;
+
+    /**
+     * Creates the metrics for the given commands, plus an "other" command for anything else.
+     * @param api - the name of the API (i.e. "wordle")
+     * @param commands - the names of the commands (i.e. "new", "check", ...)
+     */
+    public CommandMetrics(Registry registry, String api, String... commands) {
+        for (String cmd : commands) {
+            _commands.put(cmd, new Command(registry, api, cmd));
+        }
+        _other = new Command(registry, api, "other");
+    }
+
+    /**
+     * Gets the metrics of a command, given its 'cmd' request parameter.
+     * @param cmd - the values of the 'cmd' parameter, possibly null.
+     */
+    public Command get(String[] cmd) {
+        Command command = (cmd != null && cmd.length > 0) ? _commands.get(cmd[0]) : null;
+        return (command != null) ? command : _other;
+    }
+}
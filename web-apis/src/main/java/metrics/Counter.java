@@ -0,0 +1,25 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter, striped across threads such that concurrent increments don't contend.
+ */
+public class Counter {
+    private LongAdder _value = new LongAdder();
+
+    Counter() {
+    }
+
+    public void inc() {
+        _value.increment();
+    }
+
+    public void add(long delta) {
+        _value.add(delta);
+    }
+
+    public long get() {
+        return _value.sum();
+    }
+}
@@ -0,0 +1,65 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power of two buckets, from 1us up to ~33s.
+ * Recording a value is a couple of striped additions, with no allocation and no lock.
+ */
+public class Histogram {
+    // bucket i counts the durations of at most 2^i microseconds, the last bucket counts the rest
+    static final int BUCKETS = 26;
+
+    private LongAdder[] _buckets;
+    private LongAdder _sumNanos;
+
+    Histogram() {
+        _buckets = new LongAdder[BUCKETS + 1];
+        for (int i = 0; i < _buckets.length; i++) {
+            _buckets[i] = new LongAdder();
+        }
+        _sumNanos = new LongAdder();
+    }
+
+    /**
+     * Records a duration.
+     * @param nanos - the duration in nanoseconds (i.e. the difference of two System.nanoTime())
+     */
+    public void record(long nanos) {
+        long micros = Math.max(1, nanos / 1000);
+        int bucket = Math.min(BUCKETS, 64 - Long.numberOfLeadingZeros(micros - 1));
+        _buckets[bucket].increment();
+        _sumNanos.add(nanos);
+    }
+
+    /**
+     * Records the duration elapsed since the given start.
+     * @param startNanos - the System.nanoTime() at the start of the measured operation.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Gets the upper bound, in seconds, of the given bucket.
+     */
+    static double upperBound(int bucket) {
+        return (bucket < BUCKETS) ? (1L << bucket) / 1e6 : Double.POSITIVE_INFINITY;
+    }
+
+    long getBucket(int bucket) {
+        return _buckets[bucket].sum();
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : _buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public double getSumSeconds() {
+        return _sumNanos.sum() / 1e9;
+    }
+}
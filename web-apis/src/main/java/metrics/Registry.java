@@ -0,0 +1,136 @@
+package metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Holds all the metrics of the server and exports them in the Prometheus text format.
+ * Metrics are created once, up front, and then recorded into without any lookup.
+ * A metric is identified by its name and its label values, i.e.:
+ * <pre>
+ *   Histogram h = registry.histogram("wordle_request_seconds", "Wordle requests latency", "cmd", "new");
+ *   ...
+ *   h.recordSince(start);
+ * </pre>
+ */
+public class Registry {
+
+    /**
+     * All the metrics sharing the same name, type and help text.
+     */
+    private static class Family {
+        private String _type;
+        private String _help;
+        // Map<label_pairs, metric> (i.e. {<"cmd=\"new\"", histogramNew>, ..})
+        private Map<String, Object> _children = new LinkedHashMap<String, Object>();
+
+        private Family(String type, String help) {
+            _type = type;
+            _help = help;
+        }
+    }
+
+    private Map<String, Family> _families = new LinkedHashMap<String, Family>();
+
+    /**
+     * Gets the counter with the given name and labels, creating it if needed.
+     * @param labels - label names and values, alternating (i.e. "cmd", "new")
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter)child(name, "counter", help, labels, new Counter());
+    }
+
+    /**
+     * Gets the histogram with the given name and labels, creating it if needed.
+     * @param labels - label names and values, alternating (i.e. "cmd", "new")
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram)child(name, "histogram", help, labels, new Histogram());
+    }
+
+    /**
+     * Registers a gauge, read from the given supplier at export time.
+     * @param labels - label names and values, alternating (i.e. "map", "Ravenna")
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        child(name, "gauge", help, labels, value);
+    }
+
+    private synchronized Object child(String name, String type, String help, String[] labels, Object metric) {
+        Family family = _families.get(name);
+        if (family == null) {
+            family = new Family(type, help);
+            _families.put(name, family);
+        } else if (!family._type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family._type + "!");
+        }
+        StringBuilder labelPairs = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            labelPairs.append(i > 0 ? "," : "").append(labels[i]).append("=\"")
+                .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        Object child = family._children.get(labelPairs.toString());
+        if (child == null || type.equals("gauge")) {
+            child = metric;
+            family._children.put(labelPairs.toString(), child);
+        }
+        return child;
+    }
+
+    /**
+     * Writes all the metrics in the Prometheus text exposition format (version 0.0.4).
+     */
+    public void writeTo(StringBuilder out) {
+        List<Map.Entry<String, Family>> families;
+        synchronized(this) {
+            families = new ArrayList<Map.Entry<String, Family>>(_families.entrySet());
+        }
+        for (Map.Entry<String, Family> entry : families) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family._help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family._type).append('\n');
+            List<Map.Entry<String, Object>> children;
+            synchronized(this) {
+                children = new ArrayList<Map.Entry<String, Object>>(family._children.entrySet());
+            }
+            for (Map.Entry<String, Object> child : children) {
+                String labels = child.getKey();
+                Object metric = child.getValue();
+                if (metric instanceof Counter) {
+                    writeSample(out, name, labels, ((Counter)metric).get());
+                } else if (metric instanceof DoubleSupplier) {
+                    writeSample(out, name, labels, ((DoubleSupplier)metric).getAsDouble());
+                } else {
+                    Histogram histogram = (Histogram)metric;
+                    long cumulative = 0;
+                    for (int bucket = 0; bucket <= Histogram.BUCKETS; bucket++) {
+                        cumulative += histogram.getBucket(bucket);
+                        double le = Histogram.upperBound(bucket);
+                        String leLabel = "le=\"" + (Double.isInfinite(le) ? "+Inf" : Double.toString(le)) + "\"";
+                        writeSample(out, name + "_bucket", labels.isEmpty() ? leLabel : labels + "," + leLabel, cumulative);
+                    }
+                    writeSample(out, name + "_sum", labels, histogram.getSumSeconds());
+                    writeSample(out, name + "_count", labels, cumulative);
+                }
+            }
+        }
+    }
+
+    private static void writeSample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long)value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+}
@@ -0,0 +1,34 @@
+package metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+@WebServlet("/metrics")
+public class Servlet extends HttpServlet{
+    private static final long serialVersionUID = 3L;
+
+    private Registry _registry;
+
+     /**
+     * On initialization retrieve and retain the metrics registry
+     */
+    public void init() throws ServletException {
+        _registry = (Registry) getServletContext().getAttribute("context-metrics");
+    }
+
+    /**
+     * Export all metrics on a "http://.../web-apis/metrics" request
+     */
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        StringBuilder metrics = new StringBuilder();
+        _registry.writeTo(metrics);
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        response.getOutputStream().write(metrics.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,93 @@
+package trace;
+
+import java.util.Arrays;
+
+/**
+ * The events known to the {@link Tracer}. Each event has a printf-like format, with up to
+ * {@link Tracer#MAX_ARGS} arguments: a "%d" argument is a number, a "%s" argument is the
+ * id of a string interned with {@link Tracer#symbol(String)} and a "%m" argument is the id
+ * of a message given to {@link Tracer#message(String)}. Request events, recorded once per
+ * request, are told apart from the lifecycle events such that the console can be spared them.
+ */
+public enum Event {
+    // Region: wordle
+    WORDLE_STATE("~~~~ Wordle context state: %s ~~~~"),
+    WORDLE_DB_PATH("Wordle database ... [%s]"),
+    WORDLE_CSV_ERROR("Wordle database error ... [csvLine %d] %s: %m"),
+    WORDLE_DB_LOADED("Wordle database loaded ... [%d] words in %d ms"),
+    WORDLE_CLEANUP("Sessions cleaned up ... [removed %d][remaining %d] in %d us"),
+    WORDLE_REQUEST("Wordle request ... [%s] status %d in %d us", true),
+    // EndRegion: wordle
+
+    // Region: xroads
+    XROADS_STATE("~~~~ XRoads Context state: %s ~~~~"),
+    XROADS_RES_DIR("XRoads maps folder ... [%s]"),
+    XROADS_MEMORY_BEFORE("XRoads memory before loading ... [heap %d MB][direct %d MB][gc %d in %d ms]"),
+    XROADS_MEMORY_AFTER("XRoads memory after loading ... [heap %d MB][direct %d MB][gc %d in %d ms]"),
+    XROADS_MAPS_DISCOVERED("XRoads maps discovered ... [%d] maps, %s mode, %d ms"),
+    XROADS_MAP_DISCOVERED("XRoads map discovered ... [%s]"),
+    XROADS_MAP_LOADED("XRoads map loaded ... [%s] %d routes in %d ms"),
+    XROADS_MAP_LOAD_FAILED("XRoads map load failed ... %s: %m"),
+    XROADS_MAP_RELOADED("XRoads map reloaded ... [%s] %d routes in %d ms"),
+    XROADS_MAP_RELOAD_FAILED("XRoads map reload failed ... [%s] %s: %m"),
+    XROADS_MAP_REMOVED("XRoads map removed ... [%s]"),
+    XROADS_MAP_EVICTED("XRoads map evicted ... [%s]"),
+    XROADS_PYRAMID_BUILT("XRoads map pyramid built ... [%s] %d levels in %d ms"),
+    XROADS_WATCHER_DISABLED("XRoads maps hot reload disabled ... %s: %m"),
+    XROADS_REQUEST("XRoads request ... [%s] status %d in %d us", true),
+    // EndRegion: xroads
+
+    // Region: application
+    APP_PHASE("Application phase ... [%s] %s in %d ms"),
+    APP_PHASE_FAILED("Application phase failed ... [%s] %s: %m"),
+    APP_READY("~~~~ Application ready in %d ms ~~~~"),
+    APP_TASK_FAILED("Application task failed ... [%s] %s: %m");
+    // EndRegion: application
+
+    private String _format;
+    // for each argument, its conversion: 'd' for a number, 's' for a symbol, 'm' for a message
+    private char[] _conversions;
+    // whether the event is recorded once per request
+    private boolean _request;
+
+    private Event(String format) {
+        this(format, false);
+    }
+
+    private Event(String format, boolean request) {
+        // messages are formatted as strings, once resolved
+        _format = format.replace("%m", "%s");
+        _request = request;
+        int count = 0;
+        char[] conversions = new char[Tracer.MAX_ARGS];
+        for (int i = format.indexOf('%'); i >= 0; i = format.indexOf('%', i + 2)) {
+            conversions[count++] = format.charAt(i + 1);
+        }
+        _conversions = Arrays.copyOf(conversions, count);
+    }
+
+    public boolean isRequest() {
+        return _request;
+    }
+
+    /**
+     * Formats this event with the given raw arguments, resolving the symbols and messages
+     * through the tracer.
+     */
+    void format(StringBuilder sb, Tracer tracer, long[] args) {
+        Object[] values = new Object[_conversions.length];
+        for (int i = 0; i < values.length; i++) {
+            switch(_conversions[i]) {
+                case 's':
+                    values[i] = tracer.getSymbol((int)args[i]);
+                    break;
+                case 'm':
+                    values[i] = tracer.getMessage(args[i]);
+                    break;
+                default:
+                    values[i] = args[i];
+            }
+        }
+        sb.append(String.format(_format, values));
+    }
+}
@@ -0,0 +1,40 @@
+package trace;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+@WebServlet("/trace")
+public class Servlet extends HttpServlet{
+    private static final long serialVersionUID = 3L;
+
+    private Tracer _tracer;
+
+     /**
+     * On initialization retrieve and retain the tracer
+     */
+    public void init() throws ServletException {
+        _tracer = (Tracer) getServletContext().getAttribute("context-trace");
+    }
+
+    /**
+     * Dump the events in the trace buffer on a "http://.../web-apis/trace?last=N" request
+     */
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String last = request.getParameter("last");
+        StringBuilder trace = new StringBuilder();
+        try {
+            _tracer.dump(trace, (last != null) ? Integer.parseInt(last) : _tracer.getCapacity());
+        } catch (NumberFormatException e) {
+            response.setStatus(400);
+            trace.append("Invalid 'last' parameter!");
+        }
+        response.setContentType("text/plain; charset=utf-8");
+        response.getOutputStream().write(trace.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
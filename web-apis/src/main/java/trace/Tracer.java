@@ -0,0 +1,271 @@
+package trace;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-memory event trace, replacing the console logging of the contexts. Events are recorded
+ * into a preallocated ring buffer of primitive records, without locks, allocation or formatting:
+ * <pre>
+ *   tracer.trace(Event.XROADS_MAP_LOADED, tracer.symbol(mapName), routeCount, millis);
+ * </pre>
+ * Records are formatted only when read, by {@link #dump(StringBuilder, int)} or by the background
+ * drainer. When the buffer wraps around before being read, the oldest records are lost.
+ */
+public class Tracer {
+    public static final int MAX_ARGS = 4;
+
+    // Record layout: [sequence, nanoTime, event ordinal, thread id, arg0, .., arg3]
+    private static final int _RECORD_LONGS = 4 + MAX_ARGS;
+    private static final Event[] _EVENTS = Event.values();
+    // Number of messages kept, a power of two
+    private static final int _MESSAGES = 256;
+
+    private int _mask;
+    private AtomicLongArray _records;
+    private AtomicLong _next;
+    private long _startNanos;
+    private long _startMillis;
+    // Map<symbol, symbol_id> and its reverse List<symbol>
+    private Map<String, Integer> _symbolIds;
+    private List<String> _symbols;
+    // the last _MESSAGES messages, each in the slot of its id modulo _MESSAGES
+    private AtomicReferenceArray<Message> _messages;
+    private AtomicLong _nextMessage;
+    private Thread _drainer;
+    private volatile boolean _closing;
+
+    /**
+     * Creates a tracer holding the last capacity events, rounded up to a power of two.
+     */
+    public Tracer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        _mask = size - 1;
+        _records = new AtomicLongArray(size * _RECORD_LONGS);
+        for (int slot = 0; slot < size; slot++) {
+            _records.set(slot * _RECORD_LONGS, -1);
+        }
+        _next = new AtomicLong();
+        _startNanos = System.nanoTime();
+        _startMillis = System.currentTimeMillis();
+        _symbolIds = new ConcurrentHashMap<String, Integer>();
+        _symbols = new ArrayList<String>();
+        _messages = new AtomicReferenceArray<Message>(_MESSAGES);
+        _nextMessage = new AtomicLong();
+    }
+
+    /**
+     * Free text given as a "%m" argument of an event.
+     */
+    private static class Message {
+        private long _id;
+        private String _value;
+
+        private Message(long id, String value) {
+            _id = id;
+            _value = value;
+        }
+    }
+
+    public int getCapacity() {
+        return _mask + 1;
+    }
+
+    /**
+     * Gets the id of a string to be given as a "%s" argument of an event. Symbols are
+     * kept for the lifetime of the tracer, hence they should come from a small set
+     * (map names, commands, states, exception classes) rather than from request
+     * parameters or exception messages.
+     * @see #message(String)
+     */
+    public int symbol(String value) {
+        String key = String.valueOf(value);
+        Integer id = _symbolIds.get(key);
+        if (id == null) {
+            synchronized(_symbols) {
+                id = _symbolIds.get(key);
+                if (id == null) {
+                    id = _symbols.size();
+                    _symbols.add(key);
+                    _symbolIds.put(key, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Gets the id of a free text to be given as a "%m" argument of an event (i.e. the message
+     * of an exception). Unlike symbols, only the last 256 messages are kept, older ones being
+     * formatted as lost, such that variable text never piles up in the tracer.
+     */
+    public long message(String value) {
+        long id = _nextMessage.getAndIncrement();
+        _messages.set((int)(id & (_MESSAGES - 1)), new Message(id, String.valueOf(value)));
+        return id;
+    }
+
+    String getMessage(long id) {
+        Message message = _messages.get((int)(id & (_MESSAGES - 1)));
+        return (message != null && message._id == id) ? message._value : "(message lost)";
+    }
+
+    String getSymbol(int id) {
+        synchronized(_symbols) {
+            return (id >= 0 && id < _symbols.size()) ? _symbols.get(id) : "?";
+        }
+    }
+
+    // Region: recording
+    public void trace(Event event) {
+        record(event, 0, 0, 0, 0);
+    }
+
+    public void trace(Event event, long arg0) {
+        record(event, arg0, 0, 0, 0);
+    }
+
+    public void trace(Event event, long arg0, long arg1) {
+        record(event, arg0, arg1, 0, 0);
+    }
+
+    public void trace(Event event, long arg0, long arg1, long arg2) {
+        record(event, arg0, arg1, arg2, 0);
+    }
+
+    public void trace(Event event, long arg0, long arg1, long arg2, long arg3) {
+        record(event, arg0, arg1, arg2, arg3);
+    }
+
+    private void record(Event event, long arg0, long arg1, long arg2, long arg3) {
+        long seq = _next.getAndIncrement();
+        int base = (int)(seq & _mask) * _RECORD_LONGS;
+        // readers skip the slot while it is being written
+        _records.set(base, -1);
+        _records.lazySet(base + 1, System.nanoTime());
+        _records.lazySet(base + 2, event.ordinal());
+        _records.lazySet(base + 3, Thread.currentThread().threadId());
+        _records.lazySet(base + 4, arg0);
+        _records.lazySet(base + 5, arg1);
+        _records.lazySet(base + 6, arg2);
+        _records.lazySet(base + 7, arg3);
+        _records.lazySet(base, seq);
+    }
+    // EndRegion: recording
+
+    // Region: reading
+    /**
+     * Reads the record with the given sequence number.
+     * @return false if the record was overwritten or is still being written.
+     */
+    private boolean read(long seq, long[] record) {
+        int base = (int)(seq & _mask) * _RECORD_LONGS;
+        if (_records.get(base) != seq) {
+            return false;
+        }
+        for (int i = 1; i < _RECORD_LONGS; i++) {
+            record[i] = _records.get(base + i);
+        }
+        return _records.get(base) == seq;
+    }
+
+    /**
+     * Formats the events recorded since the given sequence number, one per line.
+     * @param from - sequence number of the first event to be formatted.
+     * @return the sequence number of the next event to be recorded.
+     */
+    public long drainTo(long from, StringBuilder sb) {
+        return drainTo(from, sb, true);
+    }
+
+    /**
+     * Formats the events recorded since the given sequence number, one per line.
+     * @param from - sequence number of the first event to be formatted.
+     * @param requests - whether the request events are formatted too, or skipped.
+     * @return the sequence number of the next event to be recorded.
+     */
+    public long drainTo(long from, StringBuilder sb, boolean requests) {
+        long next = _next.get();
+        long first = Math.max(from, next - getCapacity());
+        if (first > from) {
+            sb.append(String.format("... [%d] events lost%n", first - from));
+        }
+        long[] record = new long[_RECORD_LONGS];
+        long[] args = new long[MAX_ARGS];
+        for (long seq = first; seq < next; seq++) {
+            if (!read(seq, record) || (!requests && _EVENTS[(int)record[2]].isRequest())) {
+                continue;
+            }
+            long millis = _startMillis + TimeUnit.NANOSECONDS.toMillis(record[1] - _startNanos);
+            sb.append(Instant.ofEpochMilli(millis)).append(" [t").append(record[3]).append("] ");
+            System.arraycopy(record, 4, args, 0, MAX_ARGS);
+            _EVENTS[(int)record[2]].format(sb, this, args);
+            sb.append(System.lineSeparator());
+        }
+        return next;
+    }
+
+    /**
+     * Formats the last events still in the buffer, oldest first.
+     * @param last - the maximum number of events to be formatted.
+     */
+    public void dump(StringBuilder sb, int last) {
+        drainTo(Math.max(0, _next.get() - Math.min(last, getCapacity())), sb);
+    }
+    // EndRegion: reading
+
+    /**
+     * Starts a background thread appending the recorded events to the given writer,
+     * every periodMillis, until the tracer is closed.
+     * @param requests - whether the request events are written too, or left to the dump.
+     */
+    public void startDrainer(Writer out, long periodMillis, boolean requests) {
+        _drainer = new Thread(() -> {
+            long cursor = 0;
+            StringBuilder sb = new StringBuilder();
+            boolean closing = false;
+            while (!closing) {
+                try {
+                    Thread.sleep(periodMillis);
+                } catch (InterruptedException e) {
+                    // drain one last time before closing
+                }
+                closing = _closing;
+                cursor = drainTo(cursor, sb, requests);
+                try {
+                    out.write(sb.toString());
+                    out.flush();
+                } catch (IOException e) {
+                    // the events stay available to the dump
+                }
+                sb.setLength(0);
+            }
+        }, "trace-drainer");
+        _drainer.setDaemon(true);
+        _drainer.start();
+    }
+
+    /**
+     * Stops the drainer, once the events recorded so far have been written.
+     */
+    public void close() {
+        _closing = true;
+        if (_drainer != null) {
+            _drainer.interrupt();
+            try {
+                _drainer.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package web;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonParser;
+
+import metrics.Registry;
+import trace.Event;
+import trace.Tracer;
+
+/**
+ * The services behind the wordle and xroads APIs, whatever the server carrying the requests:
+ * the metrics registry, the event tracer, the two contexts, their APIs and the admission
+ * controller in front of them. Settings are given
+ * as the web.xml context-params in a war, or as the command line options of the Launcher.<p>
+ * All the background work runs on one scheduler: the two contexts are initialized in parallel,
+ * then a warm-up phase replays synthetic requests through the APIs, such that the first real
+ * requests find the code loaded and compiled. The application is ready once all the phases
+ * are done, see {@link #getReadiness()}.
+ */
+public class Application {
+    // Delay between the cleanups of the contexts
+    private static final long _CLEANUP_PERIOD = 60000;
+
+    private Registry _registry;
+    private Tracer _tracer;
+    private wordle.Context _wordleContext;
+    private xroads.Context _xroadsContext;
+    private admission.Controller _admission;
+    private wordle.Api _wordleApi;
+    private xroads.Api _xroadsApi;
+    private ScheduledExecutorService _scheduler;
+    private Readiness _readiness;
+
+    public Application(Map<String, String> params) {
+        _readiness = new Readiness("wordle", "xroads", "warmup");
+        _registry = new Registry();
+        _tracer = createTracer(params);
+        _wordleContext = new wordle.Context(params, _registry, _tracer);
+        _xroadsContext = new xroads.Context(params, _registry, _tracer);
+        _admission = new admission.Controller(params, _registry);
+        _wordleApi = new wordle.Api(_wordleContext, _registry, _tracer, _admission);
+        _xroadsApi = new xroads.Api(_xroadsContext, _registry, _tracer, _admission);
+        // one thread per context, such that both initialize in parallel
+        _scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "application-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        // optional setting: "warmup-iterations", 0 to skip the warm-up
+        String warmup = params.get("warmup-iterations");
+        start((warmup != null) ? Integer.parseInt(warmup) : 200);
+    }
+
+    /**
+     * Creates the event tracer, drained in the background to the file given by the optional
+     * "trace-file" setting. Without it, only the lifecycle events are drained, to the console,
+     * the request events being kept in memory for the /trace dump only. The optional
+     * "trace-capacity" setting is the number of events kept in memory for that dump.
+     */
+    private static Tracer createTracer(Map<String, String> params) {
+        String capacity = params.get("trace-capacity");
+        Tracer tracer = new Tracer((capacity != null) ? Integer.parseInt(capacity) : 65536);
+        String traceFile = params.get("trace-file");
+        Writer out = null;
+        if (traceFile != null) {
+            try {
+                out = Files.newBufferedWriter(Paths.get(traceFile), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.out.printf("Trace file %s not available: %s\n", traceFile, e.getMessage());
+            }
+        }
+        if (out != null) {
+            tracer.startDrainer(out, 1000, true);
+        } else {
+            tracer.startDrainer(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1000, false);
+        }
+        return tracer;
+    }
+
+    // Region: startup phases
+    /**
+     * Wraps the code of a startup phase, such that its timing and outcome get recorded.
+     * A failed phase is rethrown, the phases depending on it are then never run.
+     */
+    private Runnable phase(String name, Runnable code) {
+        return () -> {
+            _readiness.start(name);
+            String error = null;
+            try {
+                code.run();
+            } catch (RuntimeException e) {
+                error = String.valueOf(e);
+                _tracer.trace(Event.APP_PHASE_FAILED, _tracer.symbol(name),
+                        _tracer.symbol(e.getClass().getSimpleName()), _tracer.message(e.getMessage()));
+                throw e;
+            } finally {
+                long millis = _readiness.end(name, error);
+                _tracer.trace(Event.APP_PHASE, _tracer.symbol(name),
+                        _tracer.symbol((error == null) ? "done" : "failed"), millis);
+                if (_readiness.isReady()) {
+                    _tracer.trace(Event.APP_READY, _readiness._millis);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wraps a periodic task, such that a failed run is traced rather than cancelling
+     * all its next runs, as a ScheduledExecutorService does on any uncaught exception.
+     */
+    private Runnable guarded(String name, Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                _tracer.trace(Event.APP_TASK_FAILED, _tracer.symbol(name),
+                        _tracer.symbol(e.getClass().getSimpleName()), _tracer.message(e.getMessage()));
+            }
+        };
+    }
+
+    private void start(int warmupIterations) {
+        CompletableFuture<Void> wordle = CompletableFuture.runAsync(phase("wordle", _wordleContext::runInitialize), _scheduler);
+        CompletableFuture<Void> xroads = CompletableFuture.runAsync(phase("xroads", _xroadsContext::runInitialize), _scheduler);
+        CompletableFuture.allOf(wordle, xroads).thenRunAsync(phase("warmup", () -> warmUp(warmupIterations)), _scheduler);
+        // every minute cleanup orphaned sessions and missing maps, once initialized!
+        wordle.thenRun(() -> _scheduler.scheduleWithFixedDelay(guarded("wordle-cleanup", _wordleContext::runCleanup),
+                _CLEANUP_PERIOD, _CLEANUP_PERIOD, TimeUnit.MILLISECONDS));
+        xroads.thenRun(() -> _scheduler.scheduleWithFixedDelay(guarded("xroads-cleanup", _xroadsContext::runCleanup),
+                _CLEANUP_PERIOD, _CLEANUP_PERIOD, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Sends a synthetic request through an API, without recording it in the metrics.
+     */
+    private static WarmupExchange warmUpRequest(Endpoint endpoint, String query) {
+        WarmupExchange exchange = new WarmupExchange(query);
+        try {
+            endpoint.handle(exchange);
+        } catch (IOException e) {
+            // the body is in memory, there is nothing to fail
+        }
+        if (exchange.getStatus() >= 400) {
+            throw new IllegalStateException("Warm-up request " + query + " failed: " + exchange.getBody());
+        }
+        return exchange;
+    }
+
+    /**
+     * Replays a game of wordle, with the checks going through Word.getHints, and the
+     * xroads collisions of the loaded maps, with all their answers serialized to json.
+     * Maps are not loaded for the warm-up in lazy mode, only the wordle game is replayed.
+     */
+    private void warmUp(int iterations) {
+        List<String> xroadsQueries = new ArrayList<String>();
+        if (_xroadsContext.getMode() == xroads.Context.Mode.EAGER) {
+            xroadsQueries.add("cmd=maps");
+            for (String mapName : _xroadsContext.getMapNames()) {
+                String[] routes;
+                try {
+                    routes = _xroadsContext.getMap(mapName).getRoutes().toArray(new String[0]);
+                } catch (IOException e) {
+                    continue;
+                }
+                String pair = String.join(",", List.of(routes).subList(0, Math.min(2, routes.length)));
+                String powerSet = String.join(",", List.of(routes).subList(0, Math.min(6, routes.length)));
+                xroadsQueries.add("cmd=routes&map=" + mapName);
+                xroadsQueries.add("cmd=collide&map=" + mapName + "&routes=" + pair);
+                xroadsQueries.add("cmd=batch&map=" + mapName + "&sets=" + pair + ";" + powerSet);
+                xroadsQueries.add("cmd=powerset&map=" + mapName + "&routes=" + powerSet);
+            }
+        }
+
+        for (int i = 0; i < iterations; i++) {
+            String sid = JsonParser.parseString(warmUpRequest(_wordleApi, "cmd=new&name=~warmup~").getBody())
+                    .getAsJsonObject().get("_sid").getAsString();
+            try {
+                // the revealed secret is a Word (i.e. "[FIERE, 1.018777e-08, 0]")
+                String secret = JsonParser.parseString(warmUpRequest(_wordleApi, "sid=" + sid + "&cmd=reveal").getBody())
+                        .getAsJsonObject().get("_word").getAsString();
+                secret = secret.substring(1, secret.indexOf(','));
+                warmUpRequest(_wordleApi, "sid=" + sid + "&cmd=check&word=" + new StringBuilder(secret).reverse());
+                warmUpRequest(_wordleApi, "sid=" + sid + "&cmd=check&word=" + secret);
+                warmUpRequest(_wordleApi, "sid=" + sid + "&cmd=stats");
+            } finally {
+                warmUpRequest(_wordleApi, "sid=" + sid + "&cmd=close");
+            }
+            for (String query : xroadsQueries) {
+                warmUpRequest(_xroadsApi, query);
+            }
+        }
+    }
+    // EndRegion: startup phases
+
+    public Registry getRegistry() {
+        return _registry;
+    }
+
+    public Tracer getTracer() {
+        return _tracer;
+    }
+
+    public wordle.Context getWordleContext() {
+        return _wordleContext;
+    }
+
+    public xroads.Context getXRoadsContext() {
+        return _xroadsContext;
+    }
+
+    public wordle.Api getWordleApi() {
+        return _wordleApi;
+    }
+
+    public xroads.Api getXRoadsApi() {
+        return _xroadsApi;
+    }
+
+    /**
+     * Gets the startup phases and their timings, answered by the readiness endpoint.
+     */
+    public Readiness getReadiness() {
+        return _readiness;
+    }
+
+    public void closing() {
+        _scheduler.shutdownNow();
+        _xroadsContext.closing();
+        _tracer.close();
+    }
+}
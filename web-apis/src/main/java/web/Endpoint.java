@@ -0,0 +1,70 @@
+package web;
+
+import java.io.IOException;
+
+import admission.CommandClass;
+import admission.Controller;
+import metrics.CommandMetrics;
+import metrics.Registry;
+import trace.Event;
+import trace.Tracer;
+
+/**
+ * Base of the wordle and xroads APIs: the request handling code, given an Exchange,
+ * along with the metrics and the trace of each request's command.
+ */
+public abstract class Endpoint {
+    private CommandMetrics _metrics;
+    private Tracer _tracer;
+    private Controller _admission;
+    private Event _requestEvent;
+
+    /**
+     * @param name - the name of the API (i.e. "wordle"), prefix of its metrics.
+     * @param admission - the admission controller shared by all the APIs.
+     * @param requestEvent - the event traced on each request.
+     * @param commands - the names of the commands of the API (i.e. "new", "check", ...)
+     */
+    protected Endpoint(String name, Registry registry, Tracer tracer, Controller admission, Event requestEvent, String... commands) {
+        _metrics = new CommandMetrics(registry, name, commands);
+        _tracer = tracer;
+        _admission = admission;
+        _requestEvent = requestEvent;
+    }
+
+    /**
+     * Gets the class of a command, sharing the concurrency limit of the others of its class.
+     * @param cmd - the command, as given in the request (i.e. "new")
+     */
+    protected CommandClass getCommandClass(String cmd) {
+        return CommandClass.QUERY;
+    }
+
+    /**
+     * Admits the request of the exchange, before it gets handled.
+     * @param wait - whether to wait for a slot, or to shed the request unless one is free right away.
+     * @return the permit to release once the response is computed, or null if the request
+     * is shed, its 429 answer then being written already.
+     */
+    public Controller.Permit admit(Exchange exchange, boolean wait) throws IOException {
+        String[] cmd = exchange.getParameters().get("cmd");
+        CommandClass commandClass = getCommandClass((cmd != null) ? cmd[0].toLowerCase() : "");
+        return wait ? _admission.admit(commandClass, exchange) : _admission.tryAdmit(commandClass, exchange);
+    }
+
+    /**
+     * Handles the request of the exchange and writes its response.
+     */
+    public abstract void handle(Exchange exchange) throws IOException;
+
+    /**
+     * Records the latency and the outcome of a request, once its response is complete.
+     * @param startNanos - the System.nanoTime() when the request was received.
+     */
+    public void complete(Exchange exchange, long startNanos) {
+        CommandMetrics.Command command = _metrics.get(exchange.getParameters().get("cmd"));
+        command.record(startNanos, exchange.getStatus() >= 400);
+        _tracer.trace(_requestEvent, _tracer.symbol(command.getName()),
+                exchange.getStatus(), (System.nanoTime() - startNanos) / 1000);
+    }
+}
@@ -0,0 +1,45 @@
+package web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * One request and its response, independent of the server carrying them,
+ * such that the same API code runs in a servlet container or standalone.
+ * @see ServletExchange
+ * @see HttpServerExchange
+ */
+public interface Exchange {
+
+    /**
+     * Gets the query parameters of the request (i.e. {<"cmd", ["new"]>, <"name", ["me"]>})
+     */
+    Map<String, String[]> getParameters();
+
+    /**
+     * Gets the value of a request header, or null if the request has no such header.
+     */
+    String getHeader(String name);
+
+    /**
+     * Gets the address of the client (i.e. "192.168.1.10"), as seen by the server.
+     */
+    String getRemoteAddress();
+
+    int getStatus();
+
+    void setStatus(int status);
+
+    void setHeader(String name, String value);
+
+    void setContentType(String contentType);
+
+    void setContentLength(long contentLength);
+
+    /**
+     * Gets the stream of the response body. The status and headers
+     * must be set before the body is written.
+     */
+    OutputStream getOutputStream() throws IOException;
+}
@@ -0,0 +1,121 @@
+package web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Exchange of a request to the JDK's embedded HTTP server. The server wants the status
+ * and the body length up front, hence they are sent only when the body is first written,
+ * or when the exchange is closed without a body.
+ */
+public class HttpServerExchange implements Exchange {
+    private HttpExchange _exchange;
+    private Map<String, String[]> _parameters;
+    private int _status = 200;
+    private long _contentLength = -1;
+    private boolean _headersSent = false;
+
+    public HttpServerExchange(HttpExchange exchange) {
+        _exchange = exchange;
+    }
+
+    /**
+     * Decodes a raw query string (i.e. "cmd=new&name=me") into its parameters.
+     */
+    static Map<String, String[]> parseQuery(String query) {
+        Map<String, List<String>> parameters = new LinkedHashMap<String, List<String>>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                if (pair.isEmpty()) {
+                    continue;
+                }
+                int eq = pair.indexOf('=');
+                String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+                String value = URLDecoder.decode(eq < 0 ? "" : pair.substring(eq + 1), StandardCharsets.UTF_8);
+                parameters.computeIfAbsent(name, n -> new ArrayList<String>()).add(value);
+            }
+        }
+        Map<String, String[]> arrays = new LinkedHashMap<String, String[]>();
+        for (Map.Entry<String, List<String>> parameter : parameters.entrySet()) {
+            arrays.put(parameter.getKey(), parameter.getValue().toArray(new String[0]));
+        }
+        return arrays;
+    }
+
+    @Override
+    public Map<String, String[]> getParameters() {
+        if (_parameters == null) {
+            _parameters = parseQuery(_exchange.getRequestURI().getRawQuery());
+        }
+        return _parameters;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return _exchange.getRequestHeaders().getFirst(name);
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return _exchange.getRemoteAddress().getAddress().getHostAddress();
+    }
+
+    @Override
+    public int getStatus() {
+        return _status;
+    }
+
+    @Override
+    public void setStatus(int status) {
+        _status = status;
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        _exchange.getResponseHeaders().set(name, value);
+    }
+
+    @Override
+    public void setContentType(String contentType) {
+        setHeader("Content-Type", contentType);
+    }
+
+    @Override
+    public void setContentLength(long contentLength) {
+        _contentLength = contentLength;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (_exchange.getRequestMethod().equals("HEAD")) {
+            sendHeaders(-1);
+            return OutputStream.nullOutputStream();
+        }
+        // for the JDK server a length of 0 means chunked and -1 means no body
+        sendHeaders((_contentLength > 0) ? _contentLength : (_contentLength == 0) ? -1 : 0);
+        return _exchange.getResponseBody();
+    }
+
+    private void sendHeaders(long length) throws IOException {
+        if (!_headersSent) {
+            _headersSent = true;
+            _exchange.sendResponseHeaders(_status, length);
+        }
+    }
+
+    /**
+     * Completes the response, sending just the status and headers if there is no body.
+     */
+    public void close() throws IOException {
+        sendHeaders(-1);
+        _exchange.close();
+    }
+}
@@ -0,0 +1,91 @@
+package web;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the wordle and xroads APIs from the JDK's embedded HTTP server, without a servlet
+ * container, at the same paths as the war (i.e. "http://localhost:8080/web-apis/wordle?cmd=new").
+ * The server listens as soon as the contexts are created, while they load in the background,
+ * and each exchange runs on its own virtual thread.<p>
+ * Options (all optional): --port N (default 8080, 0 for any free port), plus any of the
+ * web.xml context-params (i.e. --xroads-preload lazy --trace-file web-apis.trace)
+ */
+public class Launcher {
+    public static final String CONTEXT_PATH = "/web-apis";
+
+    private static void serve(HttpExchange httpExchange, Endpoint endpoint) throws IOException {
+        long start = System.nanoTime();
+        HttpServerExchange exchange = new HttpServerExchange(httpExchange);
+        try {
+            if (!httpExchange.getRequestMethod().equals("GET") && !httpExchange.getRequestMethod().equals("HEAD")) {
+                exchange.setStatus(405);
+                return;
+            }
+            admission.Controller.Permit permit = endpoint.admit(exchange, true);
+            if (permit != null) {
+                try {
+                    endpoint.handle(exchange);
+                } finally {
+                    permit.release();
+                }
+            }
+        } finally {
+            exchange.close();
+            endpoint.complete(exchange, start);
+        }
+    }
+
+    private static void serveText(HttpExchange httpExchange, int status, String contentType, Consumer<StringBuilder> writer) throws IOException {
+        StringBuilder text = new StringBuilder();
+        writer.accept(text);
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        httpExchange.getResponseHeaders().set("Content-Type", contentType);
+        httpExchange.sendResponseHeaders(status, (bytes.length > 0) ? bytes.length : -1);
+        httpExchange.getResponseBody().write(bytes);
+        httpExchange.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            params.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        int port = Integer.parseInt(params.getOrDefault("port", "8080"));
+
+        // bind first, such that clients can connect while the contexts are being created
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        Application application = new Application(params);
+        server.createContext(CONTEXT_PATH + "/wordle", exchange -> serve(exchange, application.getWordleApi()));
+        server.createContext(CONTEXT_PATH + "/xroads", exchange -> serve(exchange, application.getXRoadsApi()));
+        server.createContext(CONTEXT_PATH + "/metrics", exchange -> serveText(exchange, 200,
+                "text/plain; version=0.0.4; charset=utf-8", text -> application.getRegistry().writeTo(text)));
+        server.createContext(CONTEXT_PATH + "/trace", exchange -> serveText(exchange, 200,
+                "text/plain; charset=utf-8", text -> application.getTracer().dump(text, application.getTracer().getCapacity())));
+        server.createContext(CONTEXT_PATH + "/ready", exchange -> {
+            Readiness readiness = application.getReadiness();
+            String json = readiness.toString();
+            serveText(exchange, readiness.isReady() ? 200 : 503, "application/json", text -> text.append(json));
+        });
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(0);
+            application.closing();
+        }));
+
+        // management classes are loaded only once listening, not to delay it
+        System.out.printf("Listening on port %d, %d ms after JVM start%n",
+                server.getAddress().getPort(), ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+}
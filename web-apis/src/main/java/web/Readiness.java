@@ -0,0 +1,98 @@
+package web;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.Gson;
+
+/**
+ * The startup phases of the Application and their timings, as answered on
+ * "http://.../web-apis/ready". The application is ready once all its phases are DONE.
+ */
+public class Readiness {
+
+    public enum State {
+        PENDING,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    public class Phase {
+        public String _name;
+        public State _state;
+        // milliseconds since the application was created
+        public long _startMillis;
+        public long _millis;
+        public String _error;
+
+        private Phase(String name) {
+            _name = name;
+            _state = State.PENDING;
+        }
+    }
+
+    private transient long _startNanos;
+    public boolean _ready;
+    public long _millis;
+    public List<Phase> _phases;
+
+    /**
+     * @param phases - the names of the phases, in their starting order.
+     */
+    Readiness(String... phases) {
+        _startNanos = System.nanoTime();
+        _phases = new ArrayList<Phase>();
+        for (String phase : phases) {
+            _phases.add(new Phase(phase));
+        }
+    }
+
+    private Phase getPhase(String name) {
+        for (Phase phase : _phases) {
+            if (phase._name.equals(name)) {
+                return phase;
+            }
+        }
+        throw new IllegalArgumentException("Unknown phase " + name);
+    }
+
+    private long millisSinceStart() {
+        return (System.nanoTime() - _startNanos) / 1000000;
+    }
+
+    synchronized void start(String name) {
+        Phase phase = getPhase(name);
+        phase._state = State.RUNNING;
+        phase._startMillis = millisSinceStart();
+    }
+
+    /**
+     * Marks a phase as DONE, or as FAILED if an error is given.
+     * @return the duration of the phase, in milliseconds.
+     */
+    synchronized long end(String name, String error) {
+        Phase phase = getPhase(name);
+        phase._state = (error == null) ? State.DONE : State.FAILED;
+        phase._millis = millisSinceStart() - phase._startMillis;
+        phase._error = error;
+        _ready = true;
+        for (Phase p : _phases) {
+            _ready &= (p._state == State.DONE);
+        }
+        if (_ready) {
+            _millis = millisSinceStart();
+        }
+        return phase._millis;
+    }
+
+    public synchronized boolean isReady() {
+        return _ready;
+    }
+
+    @Override
+    public synchronized String toString() {
+        Gson gson = new Gson();
+        return gson.toJson(this);
+    }
+}
@@ -0,0 +1,35 @@
+package web;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+@WebServlet("/ready")
+public class Servlet extends HttpServlet{
+    private static final long serialVersionUID = 3L;
+
+    private Readiness _readiness;
+
+     /**
+     * On initialization retrieve and retain the application's readiness
+     */
+    public void init() throws ServletException {
+        Application application = (Application) getServletContext().getAttribute("context-application");
+        _readiness = application.getReadiness();
+    }
+
+    /**
+     * Report the startup phases on a "http://.../web-apis/ready" request, with a 503 status until ready
+     */
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String readiness = _readiness.toString();
+        response.setStatus(_readiness.isReady() ? 200 : 503);
+        response.setContentType("application/json");
+        response.getOutputStream().write(readiness.getBytes(StandardCharsets.UTF_8));
+    }
+}
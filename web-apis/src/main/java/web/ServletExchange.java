@@ -0,0 +1,66 @@
+package web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Exchange of a servlet request and its response.
+ */
+public class ServletExchange implements Exchange {
+    private HttpServletRequest _request;
+    private HttpServletResponse _response;
+
+    public ServletExchange(HttpServletRequest request, HttpServletResponse response) {
+        _request = request;
+        _response = response;
+    }
+
+    @Override
+    public Map<String, String[]> getParameters() {
+        return _request.getParameterMap();
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return _request.getHeader(name);
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return _request.getRemoteAddr();
+    }
+
+    @Override
+    public int getStatus() {
+        return _response.getStatus();
+    }
+
+    @Override
+    public void setStatus(int status) {
+        _response.setStatus(status);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        _response.setHeader(name, value);
+    }
+
+    @Override
+    public void setContentType(String contentType) {
+        _response.setContentType(contentType);
+    }
+
+    @Override
+    public void setContentLength(long contentLength) {
+        _response.setContentLengthLong(contentLength);
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return _response.getOutputStream();
+    }
+}
@@ -0,0 +1,69 @@
+package web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Synthetic exchange of the warm-up phase: the request is given as a query string
+ * and the response body is kept in memory, for the next warm-up request to use.
+ */
+class WarmupExchange implements Exchange {
+    private Map<String, String[]> _parameters;
+    private int _status = 200;
+    private ByteArrayOutputStream _body = new ByteArrayOutputStream();
+
+    /**
+     * @param query - the request's query string (i.e. "cmd=new&name=me").
+     */
+    WarmupExchange(String query) {
+        _parameters = HttpServerExchange.parseQuery(query);
+    }
+
+    @Override
+    public Map<String, String[]> getParameters() {
+        return _parameters;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return null;
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return "localhost";
+    }
+
+    @Override
+    public int getStatus() {
+        return _status;
+    }
+
+    @Override
+    public void setStatus(int status) {
+        _status = status;
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+    }
+
+    @Override
+    public void setContentType(String contentType) {
+    }
+
+    @Override
+    public void setContentLength(long contentLength) {
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return _body;
+    }
+
+    String getBody() {
+        return _body.toString(StandardCharsets.UTF_8);
+    }
+}
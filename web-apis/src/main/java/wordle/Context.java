@@ -1,20 +1,24 @@
 package wordle;
-import java.io.File;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.Scanner;
-import java.util.Timer;
-import java.util.TimerTask;
 
-import jakarta.servlet.ServletContext;
+import metrics.Counter;
+import metrics.Registry;
+import trace.Event;
+import trace.Tracer;
 
-public class Context extends TimerTask {
+public class Context {
 
     public enum State {
         INITIALIZING,
@@ -24,22 +28,53 @@ public class Context extends TimerTask {
         READY
     }
 
-    private ServletContext _servletContext;
+    private Tracer _tracer;
     private Map<String, Session> _sessions;
     private ArrayList<Word> _words;
+    private Dictionary _dictionary;
     private State _state;
-    private Timer _timer;
     private int _wordLen;
-
-    public Context(ServletContext servletContext) {
-        _servletContext = servletContext;
-        _sessions = new HashMap<String, Session>();
+    private int _maxSessions;
+    private Counter _evictions;
+    private volatile long _loadNanos;
+    private volatile long _cleanupNanos;
+
+    /**
+     * @param params - the settings, i.e. the web.xml context-params or the Launcher options.
+     */
+    public Context(Map<String, String> params, Registry registry, Tracer tracer) {
+        _tracer = tracer;
+        // optional setting: "wordle-max-sessions", past which the least recently used sessions are evicted
+        String maxSessions = params.get("wordle-max-sessions");
+        _maxSessions = (maxSessions != null) ? Integer.parseInt(maxSessions) : 10000;
+        _evictions = registry.counter("wordle_sessions_evicted_total", "Number of wordle sessions evicted by newer ones.");
+        _sessions = createSessions();
         _words = new ArrayList<Word>();
         _wordLen = Integer.MAX_VALUE;
         _state = State.INITIALIZING;
-        _timer = new Timer();
-        // in 10ms load the database, then every minute cleanup orphaned sessions!
-        _timer.schedule(this, 8, 60000);
+        registry.gauge("wordle_sessions", "Number of open wordle sessions.", () -> _sessions.size());
+        registry.gauge("wordle_words", "Number of words in the wordle dictionary.", () -> _words.size());
+        registry.gauge("wordle_dictionary_load_seconds", "Duration of the wordle dictionary loading.", () -> _loadNanos / 1e9);
+        registry.gauge("wordle_cleanup_seconds", "Duration of the last orphan sessions cleanup.", () -> _cleanupNanos / 1e9);
+    }
+
+    /**
+     * Creates the sessions map, in access order such that the least recently
+     * used session is evicted when a new one exceeds the cap.
+     */
+    private Map<String, Session> createSessions() {
+        return Collections.synchronizedMap(new LinkedHashMap<String, Session>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                if (size() <= _maxSessions) {
+                    return false;
+                }
+                _evictions.inc();
+                return true;
+            }
+        });
     }
 
     public boolean isReady() {
@@ -52,6 +87,13 @@ public class Context extends TimerTask {
         return _state;
     }
 
+    /**
+     * Gets the words playable in an adversarial session, once READY.
+     */
+    public Dictionary getDictionary() {
+        return _dictionary;
+    }
+
     public Session getSession(String sid) {
         return _sessions.get(sid);
     }
@@ -71,12 +113,16 @@ public class Context extends TimerTask {
     }
 
     public Session newSession(String name) {
+        return newSession(name, Session.Mode.CLASSIC);
+    }
+
+    public Session newSession(String name, Session.Mode mode) {
         int retry = 5;
         int iWord = (int)(_words.size() * Math.random());
         Word secretWord = _words.get(iWord);
-        Session session = new Session(name, secretWord);
+        Session session = (mode == Session.Mode.ADVERSARIAL) ? new Session(name, _dictionary) : new Session(name, secretWord);
         while (--retry > 0 && _sessions.containsKey(session.getId())) {
-            session = new Session(name, secretWord);
+            session = (mode == Session.Mode.ADVERSARIAL) ? new Session(name, _dictionary) : new Session(name, secretWord);
         }
         if (retry == 0) {
             return null;
@@ -94,41 +140,24 @@ public class Context extends TimerTask {
     }
 
     public void reset() {
-        _sessions = new HashMap<String, Session>();
-    }
-
-    public void closing() {
-        _timer.cancel();
-    }
-
-    @Override
-    public void run() {
-        switch(_state) {
-        case INITIALIZING:
-            runInitialize();
-            break;
-        case READY:
-            runCleanup();
-            break;
-        default:
-            // no action on any of the other states!
-            break;
-        }
+        _sessions = createSessions();
     }
 
     public void runInitialize() {
         synchronized(_state) {
             _state = State.LOADING;
-            System.out.printf("~~~~ Wordle context state: %s ~~~~\n", _state.name());
+            _tracer.trace(Event.WORDLE_STATE, _tracer.symbol(_state.name()));
         }
-        String wordleDbPath = _servletContext.getRealPath("WEB-INF\\classes\\wordle\\res\\wordle.csv");
-        System.out.println(wordleDbPath);
-        Scanner wordleDbReader = null;
+        long start = System.nanoTime();
+        // the dictionary is loaded from the classpath, in the war as well as standalone
+        URL wordleDbUrl = Context.class.getResource("res/wordle.csv");
+        _tracer.trace(Event.WORDLE_DB_PATH, _tracer.symbol(String.valueOf(wordleDbUrl)));
+        BufferedReader wordleDbReader = null;
         int count = 0;
         try {
-            wordleDbReader = new Scanner(new File(wordleDbPath));
-            while(wordleDbReader.hasNextLine()) {
-                String line = wordleDbReader.nextLine();
+            // plain line reads, Scanner's regex matching is a large part of a cold start
+            wordleDbReader = new BufferedReader(new InputStreamReader(wordleDbUrl.openStream(), StandardCharsets.UTF_8));
+            for (String line = wordleDbReader.readLine(); line != null; line = wordleDbReader.readLine()) {
                 count++;
                 // skip the header
                 if (count == 1) {
@@ -139,33 +168,41 @@ public class Context extends TimerTask {
                 _words.add(word);
             }
         } catch (Exception e) {
-            System.out.printf("[csvLine %d] %s\n", count, e.getMessage());
+            _tracer.trace(Event.WORDLE_CSV_ERROR, count,
+                    _tracer.symbol(e.getClass().getSimpleName()), _tracer.message(e.getMessage()));
         } finally {
             if (wordleDbReader != null) {
-                wordleDbReader.close();
+                try {
+                    wordleDbReader.close();
+                } catch (IOException e) {
+                    // nothing left to read
+                }
             }
         }
-        System.out.printf("Wordle Database loaded ... [%d] words\n", count);
         synchronized(_state) {
             _state = State.SORTING;
-            System.out.printf("~~~~ Wordle context state: %s ~~~~\n", _state.name());
+            _tracer.trace(Event.WORDLE_STATE, _tracer.symbol(_state.name()));
         }
         Collections.sort(_words);
+        _dictionary = new Dictionary(_words, _wordLen);
+        _loadNanos = System.nanoTime() - start;
+        _tracer.trace(Event.WORDLE_DB_LOADED, count, _loadNanos / 1000000);
         synchronized(_state) {
             _state = State.READY;
-            System.out.printf("~~~~ Wordle context state: %s ~~~~\n", _state.name());
+            _tracer.trace(Event.WORDLE_STATE, _tracer.symbol(_state.name()));
         }
     }
 
     public void runCleanup() {
         synchronized(_state) {
             _state = State.CLEANING;
-            System.out.printf("~~~~ Context state: %s ~~~~\n", _state.name());
+            _tracer.trace(Event.WORDLE_STATE, _tracer.symbol(_state.name()));
         }
 
+        long start = System.nanoTime();
         Queue<Session> orphanSessions = new LinkedList<Session>();
         Instant now = Instant.now();
-        for(Session session : _sessions.values()) {
+        for(Session session : new ArrayList<Session>(_sessions.values())) {
             if (session.isOrphan(now)) {
                 orphanSessions.add(session);
             }
@@ -176,10 +213,11 @@ public class Context extends TimerTask {
             _sessions.remove(orphan.getId());
             count++;
         }
-        System.out.printf("Sessions cleaned up ... [removed %d][remaining %d] words\n", count, _sessions.size());
+        _cleanupNanos = System.nanoTime() - start;
+        _tracer.trace(Event.WORDLE_CLEANUP, count, _sessions.size(), _cleanupNanos / 1000);
         synchronized(_state) {
             _state = State.READY;
-            System.out.printf("~~~~ Context state: %s ~~~~\n", _state.name());
+            _tracer.trace(Event.WORDLE_STATE, _tracer.symbol(_state.name()));
         }
     }
 }
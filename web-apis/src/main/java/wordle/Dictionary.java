@@ -0,0 +1,119 @@
+package wordle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The words playable in a game, all of the same length, with their characters packed in
+ * one string. The candidates of an adversarial session are then mere indices into the
+ * dictionary and their patterns get computed in place, without touching the Word objects.
+ */
+public class Dictionary {
+    private static final int _MAX_BUFFERS = 8;
+
+    /**
+     * Working buffers of one check narrowing the candidates of an adversarial session,
+     * borrowed from the dictionary for the length of the check.
+     * @see Dictionary#acquireBuffers()
+     */
+    public class Buffers {
+        private int[] _groups = new int[_patternCount];
+        private int[] _patterns = new int[_words.length];
+
+        /**
+         * Gets the size of each pattern group, all of them 0 when the buffers are acquired.
+         */
+        public int[] getGroups() {
+            return _groups;
+        }
+
+        /**
+         * Gets room for the pattern of every word of the dictionary.
+         */
+        public int[] getPatterns() {
+            return _patterns;
+        }
+    }
+
+    private Word[] _words;
+    private String _letters;
+    private int _wordLen;
+    private int _patternCount;
+    private Queue<Buffers> _buffers;
+
+    /**
+     * @param words - the words, in the order their indices follow (i.e. most frequent first).
+     * @param wordLen - the length of the words kept, any other word is left out.
+     */
+    public Dictionary(List<Word> words, int wordLen) {
+        List<Word> kept = new ArrayList<Word>();
+        StringBuilder letters = new StringBuilder();
+        for (Word word : words) {
+            if (word.getWord().length() == wordLen) {
+                kept.add(word);
+                letters.append(word.getWord());
+            }
+        }
+        _words = kept.toArray(new Word[0]);
+        _letters = letters.toString();
+        _wordLen = wordLen;
+        _patternCount = 1;
+        for (int i = 0; i < wordLen; i++) {
+            _patternCount *= 3;
+        }
+        _buffers = new ConcurrentLinkedQueue<Buffers>();
+    }
+
+    public int size() {
+        return _words.length;
+    }
+
+    public int getWordLength() {
+        return _wordLen;
+    }
+
+    /**
+     * Gets the number of distinct patterns, all of them being lower than this number.
+     */
+    public int getPatternCount() {
+        return _patternCount;
+    }
+
+    public Word getWord(int index) {
+        return _words[index];
+    }
+
+    /**
+     * Gets the pattern of a word against the dictionary's word at the given index,
+     * as the {@link Word#getPattern(String)} of that word would.
+     */
+    public int getPattern(int index, String word) {
+        return Word.getPattern(_letters, index * _wordLen, _wordLen, word);
+    }
+
+    /**
+     * Gets working buffers for a check, reusing the ones given back by earlier checks
+     * such that checks don't allocate buffers as large as the dictionary.
+     * @see #releaseBuffers(Buffers)
+     */
+    public Buffers acquireBuffers() {
+        Buffers buffers = _buffers.poll();
+        if (buffers == null) {
+            return new Buffers();
+        }
+        Arrays.fill(buffers._groups, 0);
+        return buffers;
+    }
+
+    /**
+     * Gives back the buffers of a check, kept for the next checks unless enough already are.
+     */
+    public void releaseBuffers(Buffers buffers) {
+        if (_buffers.size() < _MAX_BUFFERS) {
+            _buffers.offer(buffers);
+        }
+    }
+}
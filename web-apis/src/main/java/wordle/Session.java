@@ -11,9 +11,23 @@ public class Session implements Comparable<Session> {
     // is considered orphaned and subjected to removal.
     private static final Duration _LIFECHECK = Duration.ofHours(12);
 
+    /**
+     * CLASSIC picks the secret word upfront, ADVERSARIAL does not pick any: each check keeps
+     * the largest group of the words still possible, as long as more than one is left.
+     */
+    public enum Mode {
+        CLASSIC,
+        ADVERSARIAL
+    }
+
     private String _sessionId;
     private String _name;
+    private Mode _mode;
     private Word _secret;
+    // Adversarial mode: the dictionary indices of the words still possible, or null while all are
+    private Dictionary _dictionary;
+    private int[] _candidates;
+    private int _candidateCount;
     private ArrayList<String[]> _guesses;
     private int _solved;
     private boolean _spoiled;
@@ -23,6 +37,7 @@ public class Session implements Comparable<Session> {
         UUID uuid = UUID.randomUUID();
         _sessionId = uuid.toString().substring(0, 8).toUpperCase();
         _name = name;
+        _mode = Mode.CLASSIC;
         _secret = secret;
         _guesses = new ArrayList<String[]>();
         _solved = 0;
@@ -30,6 +45,16 @@ public class Session implements Comparable<Session> {
         _heartbeat = Instant.now();
     }
 
+    /**
+     * Creates an ADVERSARIAL session, any word of the dictionary being possible until the first check.
+     */
+    public Session(String name, Dictionary dictionary) {
+        this(name, (Word)null);
+        _mode = Mode.ADVERSARIAL;
+        _dictionary = dictionary;
+        _candidateCount = dictionary.size();
+    }
+
     public String getId() {
         return _sessionId;
     }
@@ -38,13 +63,28 @@ public class Session implements Comparable<Session> {
         return _name;
     }
 
-    public Word getSecret() {
+    public Mode getMode() {
+        return _mode;
+    }
+
+    public synchronized Word getSecret() {
         // mark the session as spoiled only if it was not solved already
         _spoiled = (_solved == 0);
+        if (_secret == null) {
+            // adversarial mode settles on the most frequent of the words still possible
+            _secret = _dictionary.getWord((_candidates != null) ? _candidates[0] : 0);
+        }
         return _secret;
     }
 
-    public List<String> getGuesses() {
+    /**
+     * Gets the number of words the secret may still be, 1 once the secret is settled.
+     */
+    public synchronized int getCandidateCount() {
+        return (_secret != null) ? 1 : _candidateCount;
+    }
+
+    public synchronized List<String> getGuesses() {
         List<String> guesses = new ArrayList<String>();
         for(String[] guess : _guesses) {
             guesses.add(String.format("%s > %s", guess[0], guess[1]));
@@ -52,8 +92,8 @@ public class Session implements Comparable<Session> {
         return guesses;
     }
 
-    public boolean checkWord(String word) {
-        String hints = _secret.getHints(word);
+    public synchronized boolean checkWord(String word) {
+        String hints = (_secret != null) ? _secret.getHints(word) : narrowCandidates(word);
         String[] guess = new String[] {word, hints};
         _guesses.add(guess);
         if (_solved == 0 && hints.equals(word)) {
@@ -62,11 +102,57 @@ public class Session implements Comparable<Session> {
         return hints.equals(word);
     }
 
-    public String getLastHint() {
+    /**
+     * Groups the candidates by their pattern against the word and keeps the largest group,
+     * such that the hints say as little as possible. Ties go to the lowest pattern, hence the
+     * word itself (the highest pattern) is kept only when it is the last candidate.
+     * @return the hints of the kept group.
+     */
+    private String narrowCandidates(String word) {
+        if (word.length() != _dictionary.getWordLength()) {
+            return _dictionary.getWord(0).getHints(word);
+        }
+        // one pass computing the patterns, the kept candidates are then picked by their pattern
+        Dictionary.Buffers buffers = _dictionary.acquireBuffers();
+        int[] groups = buffers.getGroups();
+        int[] patterns = buffers.getPatterns();
+        int kept = 0;
+        int[] candidates;
+        int count = 0;
+        try {
+            for (int i = 0; i < _candidateCount; i++) {
+                patterns[i] = _dictionary.getPattern((_candidates != null) ? _candidates[i] : i, word);
+                groups[patterns[i]]++;
+            }
+            for (int pattern = 1; pattern < _dictionary.getPatternCount(); pattern++) {
+                if (groups[pattern] > groups[kept]) {
+                    kept = pattern;
+                }
+            }
+
+            // compact the kept candidates in place, sized to the kept group on the first check
+            candidates = (_candidates != null) ? _candidates : new int[groups[kept]];
+            for (int i = 0; i < _candidateCount; i++) {
+                if (patterns[i] == kept) {
+                    candidates[count++] = (_candidates != null) ? _candidates[i] : i;
+                }
+            }
+        } finally {
+            _dictionary.releaseBuffers(buffers);
+        }
+        _candidates = candidates;
+        _candidateCount = count;
+        if (count == 1) {
+            _secret = _dictionary.getWord(candidates[0]);
+        }
+        return Word.toHints(word, kept);
+    }
+
+    public synchronized String getLastHint() {
         return _guesses.size() > 0 ? _guesses.get(_guesses.size()-1)[1] : null;
     }
 
-    public String getState() {
+    public synchronized String getState() {
         if (_guesses.size() == 0) {
             return "NOT Started!";
         } else if (_solved > 0) {
@@ -95,7 +181,7 @@ public class Session implements Comparable<Session> {
         return (lifetime.compareTo(_LIFECHECK) >= 0);
     }
 
-    public boolean isSpoiled() {
+    public synchronized boolean isSpoiled() {
         return _spoiled;
     }
 
@@ -105,7 +191,7 @@ public class Session implements Comparable<Session> {
     }
 
     @Override
-    public String toString() {
+    public synchronized String toString() {
         return String.format("(%s %c %s) %s", _sessionId, _spoiled ? '!' : ':', _name, getState());
     }
 }
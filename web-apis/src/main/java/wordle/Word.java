@@ -53,6 +53,93 @@ public class Word implements Comparable<Word> {
         return String.valueOf(hints);
     }
 
+    /**
+     * Gets the hints of a word as a base-3 number, one digit per character, the first character
+     * being the least significant: 2 for a perfect match, 1 for a '*' and 0 for a '-'. Same rules
+     * as {@link #getHints(String)}, which it decodes back with {@link #toHints(String, int)}.
+     * @return the pattern, or -1 if the word's length differs from this word's.
+     */
+    public int getPattern(String word) {
+        return getPattern(_word, 0, _word.length(), word);
+    }
+
+    /**
+     * Gets the pattern of a word against a secret given in place, i.e. inside the letters
+     * of a whole dictionary, without allocating anything.
+     * @param secrets - the characters holding the secret.
+     * @param offset - the index of the secret's first character in secrets.
+     * @param length - the length of the secret.
+     */
+    public static int getPattern(CharSequence secrets, int offset, int length, String word) {
+        if (word.length() != length) {
+            return -1;
+        }
+        if (length > 31) {
+            return getPatternSlow(secrets, offset, length, word);
+        }
+        // the perfect matches, and the unmatched set of getHints as a bitmask of the characters 'A' and next
+        int exact = 0;
+        int unmatched = 0;
+        for (int i = 0; i < length; i++) {
+            char sC = secrets.charAt(offset + i);
+            if (sC == word.charAt(i)) {
+                exact |= 1 << i;
+            } else if (sC - 'A' >= 0 && sC - 'A' < 32) {
+                unmatched |= 1 << (sC - 'A');
+            } else {
+                return getPatternSlow(secrets, offset, length, word);
+            }
+        }
+        int pattern = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            int wC = word.charAt(i) - 'A';
+            if ((exact & (1 << i)) != 0) {
+                pattern = pattern * 3 + 2;
+            } else if (wC >= 0 && wC < 32 && (unmatched & (1 << wC)) != 0) {
+                pattern = pattern * 3 + 1;
+            } else {
+                pattern = pattern * 3;
+            }
+        }
+        return pattern;
+    }
+
+    /**
+     * Same as getPattern, for secrets having characters out of the bitmask range.
+     */
+    private static int getPatternSlow(CharSequence secrets, int offset, int length, String word) {
+        int pattern = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            char wC = word.charAt(i);
+            int digit = 0;
+            if (secrets.charAt(offset + i) == wC) {
+                digit = 2;
+            } else {
+                for (int j = 0; j < length; j++) {
+                    char sC = secrets.charAt(offset + j);
+                    if (sC == wC && sC != word.charAt(j)) {
+                        digit = 1;
+                        break;
+                    }
+                }
+            }
+            pattern = pattern * 3 + digit;
+        }
+        return pattern;
+    }
+
+    /**
+     * Decodes a pattern back to the hints of the word, as given by {@link #getHints(String)}.
+     */
+    public static String toHints(String word, int pattern) {
+        char[] hints = new char[word.length()];
+        for (int i = 0; i < hints.length; i++, pattern /= 3) {
+            int digit = pattern % 3;
+            hints[i] = (digit == 2) ? word.charAt(i) : (digit == 1) ? '*' : '-';
+        }
+        return String.valueOf(hints);
+    }
+
     @Override
     public int compareTo(Word o) {
         return -(int)Math.signum(_occurrence - o._occurrence);
@@ -0,0 +1,75 @@
+package xroads;
+
+import java.util.Set;
+
+import com.google.gson.Gson;
+
+public class Answer {
+
+    public class Maps extends Answer {
+        public String _state;
+        public Set<String> _maps;
+
+        public Maps(Context context) {
+            _state = context.getState().name();
+            _maps = context.getMapNames();
+        }
+    }
+
+    public class Routes extends Answer {
+        public String _map;
+        public Set<String> _routes;
+
+        public Routes(String map, Set<String> routes) {
+            _map = map;
+            _routes = routes;
+        }
+    }
+
+    public class Collide extends Answer {
+        public String _map;
+        public String[] _routes;
+        public boolean _collide;
+
+        public Collide(String map, String[] routes, boolean collide) {
+            _map = map;
+            _routes = routes;
+            _collide = collide;
+        }
+    }
+
+    public class Pyramid extends Answer {
+        public String _map;
+        public int _tileSize;
+        // for each level, its {width, height, columns, rows}
+        public int[][] _levels;
+
+        public Pyramid(String map, TilePyramid tilePyramid) {
+            _map = map;
+            _tileSize = TilePyramid.TILE_SIZE;
+            _levels = new int[tilePyramid.getLevels()][];
+            for (int level = 0; level < _levels.length; level++) {
+                _levels[level] = new int[] {
+                    tilePyramid.getWidth(level),
+                    tilePyramid.getHeight(level),
+                    tilePyramid.getColumns(level),
+                    tilePyramid.getRows(level)
+                };
+            }
+        }
+    }
+
+    public class Err extends Answer {
+        public String _error;
+
+        public Err(String error) {
+            _error = error;
+        }
+    }
+
+    @Override
+    public String toString() {
+        Gson gson = new Gson();
+        return gson.toJson(this);
+    }
+}
@@ -0,0 +1,246 @@
+package xroads;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.google.gson.Gson;
+
+import admission.CommandClass;
+import admission.Controller;
+import metrics.Registry;
+import trace.Event;
+import trace.Tracer;
+import web.Endpoint;
+import web.Exchange;
+
+/**
+ * The xroads API, served by the xroads Servlet in a war, or by the standalone Launcher.
+ */
+public class Api extends Endpoint {
+    private static final int _NOT_MODIFIED = 304;
+    // Number of batch result lines between flushes of the response stream
+    private static final int _BATCH_FLUSH = 4096;
+    // Escapes the map and route names written in the batch results
+    private static final Gson _SERIALIZER = new Gson();
+
+    private Context _context;
+
+    public Api(Context context, Registry registry, Tracer tracer, Controller admission) {
+        super("xroads", registry, tracer, admission, Event.XROADS_REQUEST, "maps", "routes", "collide", "batch", "powerset", "pyramid", "tile", "image");
+        _context = context;
+    }
+
+    @Override
+    protected CommandClass getCommandClass(String cmd) {
+        switch(cmd) {
+            case "batch":
+            case "powerset":
+            case "pyramid":
+            case "tile":
+            case "image":
+                return CommandClass.RENDER;
+            default:
+                return CommandClass.QUERY;
+        }
+    }
+
+    private static void checkTrue(boolean condition, String message) {
+        if (!condition) {
+            throw new RuntimeException("##Err##: " + message);
+        }
+    }
+
+    private static String[] getRoutes(Map<String, String[]> params) {
+        if (!params.containsKey("routes") || params.get("routes")[0].isEmpty()) {
+            return new String[0];
+        }
+        String routes = params.get("routes")[0].toUpperCase();
+        checkTrue(routes.matches("[A-Z0-9,]*"), "Invalid 'routes' parameter!");
+        return routes.split(",");
+    }
+
+    private MapImage getMap(Map<String, String[]> params) throws IOException {
+        checkTrue(_context.isReady(), "Server not ready!");
+        checkTrue(params.containsKey("map"), "Missing 'map' parameter!");
+        MapImage mapImage = _context.getMap(params.get("map")[0]);
+        checkTrue(mapImage != null, "Invalid map!");
+        return mapImage;
+    }
+
+    /**
+     * Writes the pre-encoded image to the response, or just the 304 status
+     * if the client already has this very same image.
+     */
+    private static void writeRendering(Exchange exchange, RenderCache.Rendering rendering) throws IOException {
+        exchange.setHeader("ETag", rendering.getETag());
+        exchange.setHeader("Cache-Control", "no-cache");
+        String ifNoneMatch = exchange.getHeader("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.contains(rendering.getETag()) || ifNoneMatch.trim().equals("*"))) {
+            exchange.setStatus(_NOT_MODIFIED);
+            return;
+        }
+        exchange.setContentType("image/png");
+        exchange.setContentLength(rendering.getBytes().length);
+        exchange.getOutputStream().write(rendering.getBytes());
+    }
+
+    /**
+     * Gets the route sets of a batch request, given as one or more 'sets' parameters,
+     * each holding ';' separated route sets (i.e. "sets=AB,CD;AC,DA;BD").
+     * @param maxSets - the most route sets accepted in one request.
+     */
+    private static List<String[]> getRouteSets(Map<String, String[]> params, int maxSets) {
+        checkTrue(params.containsKey("sets"), "Missing 'sets' parameter!");
+        List<String[]> routeSets = new ArrayList<String[]>();
+        for(String sets : params.get("sets")) {
+            checkTrue(sets.toUpperCase().matches("[A-Z0-9,;]*"), "Invalid 'sets' parameter!");
+            for(String set : sets.toUpperCase().split(";")) {
+                checkTrue(routeSets.size() < maxSets, "Too many route sets for a batch!");
+                routeSets.add(set.isEmpty() ? new String[0] : set.split(","));
+            }
+        }
+        return routeSets;
+    }
+
+    /**
+     * Appends one line of newline-delimited JSON, in the same shape as Answer.Collide.
+     * @param map - the JSON quoted map name.
+     * @param routes - the JSON quoted route names, of which the first count are written.
+     */
+    private static void appendCollide(StringBuilder out, String map, String[] routes, int count, boolean collide) {
+        out.append("{\"_map\":").append(map).append(",\"_routes\":[");
+        for (int i = 0; i < count; i++) {
+            out.append((i > 0) ? "," : "").append(routes[i]);
+        }
+        out.append("],\"_collide\":").append(collide).append("}\n");
+    }
+
+    /**
+     * Streams the batch results to the response, flushing every few thousand lines
+     * such that the client can start consuming them while the rest are being formatted.
+     */
+    static void writeBatch(Exchange exchange, String map, List<String[]> routeSets, boolean[] results) throws IOException {
+        exchange.setContentType("application/x-ndjson");
+        OutputStream out = exchange.getOutputStream();
+        StringBuilder lines = new StringBuilder();
+        String quotedMap = _SERIALIZER.toJson(map);
+        for (int i = 0; i < results.length; i++) {
+            String[] routes = routeSets.get(i);
+            String[] quotedRoutes = new String[routes.length];
+            for (int j = 0; j < routes.length; j++) {
+                quotedRoutes[j] = _SERIALIZER.toJson(routes[j]);
+            }
+            appendCollide(lines, quotedMap, quotedRoutes, routes.length, results[i]);
+            if ((i + 1) % _BATCH_FLUSH == 0) {
+                out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                lines.setLength(0);
+            }
+        }
+        out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Streams the power set results to the response, subset s holding the routes[i]
+     * for which bit i of s is set.
+     */
+    static void writePowerSet(Exchange exchange, String map, String[] routes, BitSet results) throws IOException {
+        exchange.setContentType("application/x-ndjson");
+        OutputStream out = exchange.getOutputStream();
+        StringBuilder lines = new StringBuilder();
+        String quotedMap = _SERIALIZER.toJson(map);
+        String[] quotedRoutes = new String[routes.length];
+        for (int i = 0; i < routes.length; i++) {
+            quotedRoutes[i] = _SERIALIZER.toJson(routes[i]);
+        }
+        String[] subsetRoutes = new String[routes.length];
+        for (int subset = 0; subset < (1 << routes.length); subset++) {
+            int count = 0;
+            for (int bits = subset; bits != 0; bits &= bits - 1) {
+                subsetRoutes[count++] = quotedRoutes[Integer.numberOfTrailingZeros(bits)];
+            }
+            appendCollide(lines, quotedMap, subsetRoutes, count, results.get(subset));
+            if ((subset + 1) % _BATCH_FLUSH == 0) {
+                out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                lines.setLength(0);
+            }
+        }
+        out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parse a "http://.../web-apis/xroads?" request
+     */
+    @Override
+    public void handle(Exchange exchange) throws IOException {
+        Map<String, String[]> params = exchange.getParameters();
+        Answer answer = new Answer();
+        MapImage mapImage = null;
+
+        try {
+            checkTrue(params.containsKey("cmd"),"Missing 'cmd' parameter!");
+            String cmd = params.get("cmd")[0];
+            switch(cmd.toLowerCase()) {
+                case "maps": // http://localhost:8080/web-apis/xroads?cmd=maps
+                    answer = answer.new Maps(_context);
+                    break;
+                case "routes": // http://localhost:8080/web-apis/xroads?cmd=routes&map=Ravenna
+                    mapImage = getMap(params);
+                    answer = answer.new Routes(mapImage.getMapName(), new TreeSet<String>(mapImage.getRoutes()));
+                    break;
+                case "collide": // http://localhost:8080/web-apis/xroads?cmd=collide&map=Ravenna&routes=AB,CD
+                    mapImage = getMap(params);
+                    String[] routes = getRoutes(params);
+                    answer = answer.new Collide(mapImage.getMapName(), routes, mapImage.collide(routes));
+                    break;
+                case "batch": // http://localhost:8080/web-apis/xroads?cmd=batch&map=Ravenna&sets=AB,CD;AB,AC[&sets=...]
+                    mapImage = getMap(params);
+                    List<String[]> routeSets = getRouteSets(params, _context.getMaxBatchSets());
+                    writeBatch(exchange, mapImage.getMapName(), routeSets, mapImage.collide(routeSets));
+                    return;
+                case "powerset": // http://localhost:8080/web-apis/xroads?cmd=powerset&map=Ravenna&routes=AB,AC,CD
+                    mapImage = getMap(params);
+                    String[] powerRoutes = getRoutes(params);
+                    checkTrue(powerRoutes.length <= MapImage.MAX_POWER_SET_ROUTES, "Too many routes for a power set!");
+                    writePowerSet(exchange, mapImage.getMapName(), powerRoutes, mapImage.collidePowerSet(powerRoutes));
+                    return;
+                case "pyramid": // http://localhost:8080/web-apis/xroads?cmd=pyramid&map=Ravenna
+                    mapImage = getMap(params);
+                    answer = answer.new Pyramid(mapImage.getMapName(), mapImage.getTilePyramid());
+                    break;
+                case "tile": // http://localhost:8080/web-apis/xroads?cmd=tile&map=Ravenna&level=1&x=0&y=1[&routes=AB,CD]
+                    mapImage = getMap(params);
+                    checkTrue(params.containsKey("level") && params.containsKey("x") && params.containsKey("y"), "Missing 'level', 'x' or 'y' parameter!");
+                    writeRendering(exchange, _context.getTile(mapImage,
+                            Integer.parseInt(params.get("level")[0]),
+                            Integer.parseInt(params.get("x")[0]),
+                            Integer.parseInt(params.get("y")[0]),
+                            Arrays.asList(getRoutes(params))));
+                    return;
+                case "image": // http://localhost:8080/web-apis/xroads?cmd=image&map=Ravenna[&routes=AB,CD]
+                    mapImage = getMap(params);
+                    writeRendering(exchange, _context.getRendering(mapImage, Arrays.asList(getRoutes(params))));
+                    return;
+                default:
+                    answer = answer.new Err("Unsupported 'cmd' parameter!");
+            }
+        } catch(RuntimeException | IOException e) {
+            answer = answer.new Err(e.getMessage());
+        }
+
+        String jsonAnswer = answer.toString();
+        if (answer instanceof Answer.Err) {
+            exchange.setStatus(400);
+        }
+        exchange.setContentType("application/json");
+        exchange.getOutputStream().write(jsonAnswer.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,127 @@
+package xroads;
+
+import java.awt.Rectangle;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pre-computed collision data for the intersection area of a map. While building, each
+ * pixel in the area gets a bit mask of the routes having an opaque pixel at that location,
+ * and two routes conflict if some pixel has them both in different color classes.<p>
+ * Since a set of routes collides if and only if some pair of them collides, the pairwise
+ * conflicts are extracted from these pixel masks in one pass. Testing any set of routes is
+ * then a handful of bit operations, independent of the size of the intersection area.
+ * Masks can be built only for maps with up to 64 routes.
+ */
+class CollisionMask {
+    public static final int MAX_ROUTES = Long.SIZE;
+
+    // Map<route_name, bit_index> (i.e. {<"AB", 0>, <"AC", 1>, ..})
+    private Map<String, Integer> _routeBits;
+    // For each route bit, the mask of the routes of a different color overlapping it
+    private long[] _conflicts;
+
+    /**
+     * Builds the collision mask for the given overlays, over the
+     * area [xMin, xMax) x [yMin, yMax) of the map.
+     */
+    public CollisionMask(OverlayStore overlays, int xMin, int yMin, int xMax, int yMax) {
+        if (overlays.getRoutes().size() > MAX_ROUTES) {
+            throw new IllegalArgumentException("Too many routes for a collision mask!");
+        }
+        int width = xMax - xMin;
+        int height = yMax - yMin;
+        Rectangle area = new Rectangle(xMin, yMin, width, height);
+        _routeBits = new HashMap<String, Integer>();
+        // for each pixel in the intersection area, the mask of the routes opaque at that location
+        long[] coverage = new long[width * height];
+        // for each pixel, the color class of the first route opaque there and the routes of that class
+        int[] firstClasses = new int[width * height];
+        long[] firstClassRoutes = new long[width * height];
+        String[] routes = overlays.getRoutes().toArray(new String[0]);
+        int[] indices = new int[routes.length];
+        int[] rowClasses = new int[width];
+        for (int bit = 0; bit < routes.length; bit++) {
+            _routeBits.put(routes[bit], bit);
+            indices[bit] = overlays.indexOf(routes[bit]);
+            // only the part of the area covered by the overlay can be opaque
+            Rectangle bounds = overlays.getBounds(indices[bit]).intersection(area);
+            for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+                overlays.getColorClasses(indices[bit], bounds.x, y, bounds.width, rowClasses);
+                for (int x = 0; x < bounds.width; x++) {
+                    if (rowClasses[x] < 0) {
+                        continue;
+                    }
+                    int i = (y - yMin) * width + (bounds.x - xMin + x);
+                    if (coverage[i] == 0) {
+                        firstClasses[i] = rowClasses[x];
+                    }
+                    if (rowClasses[x] == firstClasses[i]) {
+                        firstClassRoutes[i] |= 1L << bit;
+                    }
+                    coverage[i] |= 1L << bit;
+                }
+            }
+        }
+
+        _conflicts = new long[routes.length];
+        int[] colorClasses = new int[routes.length];
+        for (int i = 0; i < coverage.length; i++) {
+            long pixel = coverage[i];
+            // routes all of the same color class don't conflict
+            if (pixel == firstClassRoutes[i]) {
+                continue;
+            }
+            for (long bits = pixel; bits != 0; bits &= bits - 1) {
+                int bit = Long.numberOfTrailingZeros(bits);
+                colorClasses[bit] = overlays.getColorClass(indices[bit], xMin + i % width, yMin + i / width);
+            }
+            for (long bits = pixel; bits != 0; bits &= bits - 1) {
+                int bit = Long.numberOfTrailingZeros(bits);
+                for (long others = pixel; others != 0; others &= others - 1) {
+                    int other = Long.numberOfTrailingZeros(others);
+                    if (colorClasses[other] != colorClasses[bit]) {
+                        _conflicts[bit] |= 1L << other;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the bit mask for the given routes. Routes not known to this mask are ignored.
+     */
+    public long getMask(String... routes) {
+        long mask = 0;
+        for (String route : routes) {
+            Integer bit = _routeBits.get(route);
+            if (bit != null) {
+                mask |= 1L << bit;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Indicates whether any of the routes in the given mask have opaque pixels
+     * of different colors at the same location.
+     */
+    public boolean collide(long mask) {
+        for (long bits = mask; bits != 0; bits &= bits - 1) {
+            if ((_conflicts[Long.numberOfTrailingZeros(bits)] & mask) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the mask of the routes conflicting with the given route, that is routes of
+     * a different color having opaque pixels at the same location.
+     * @return the mask of conflicting routes, or 0 if the route is not known to this mask.
+     */
+    public long getConflicts(String route) {
+        Integer bit = _routeBits.get(route);
+        return (bit != null) ? _conflicts[bit] : 0;
+    }
+}
@@ -1,11 +1,40 @@
 package xroads;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-import jakarta.servlet.ServletContext;
+import metrics.Histogram;
+import metrics.Registry;
+import trace.Event;
+import trace.Tracer;
 
-public class Context extends TimerTask {
+public class Context {
 
     public enum State {
         INITIALIZING,
@@ -13,16 +42,73 @@ public class Context extends TimerTask {
         READY
     }
 
-    private ServletContext _servletContext;
+    /**
+     * EAGER decodes all the maps while initializing, LAZY decodes each map on its first request.
+     */
+    public enum Mode {
+        EAGER,
+        LAZY
+    }
+
+    /**
+     * Registry entry for one of the enhanced map files in the resource folder.
+     * The decoded MapImage may be dropped when the heap budget is exceeded and
+     * gets decoded again on the next request.
+     */
+    private static class MapEntry {
+        private File _file;
+        private volatile MapImage _mapImage = null;
+        private AtomicLong _hits = new AtomicLong();
+        private long _footprint = 0;
+
+        private MapEntry(File file) {
+            _file = file;
+        }
+    }
+
+    private Tracer _tracer;
     private State _state;
-    private Timer _timer;
+    private Mode _mode;
+    private long _heapBudget;
+    private ExecutorService _loader;
+    private Map<String, MapEntry> _maps;
+    private AtomicBoolean _initialized;
+    private File _resDir;
+    private WatchService _watchService;
+    private Thread _watcher;
+    private RenderCache _renderCache;
+    private int _maxBatchSets;
+    private Histogram _mapLoads;
 
-    public Context(ServletContext servletContext) {
-        _servletContext = servletContext;
+    /**
+     * @param params - the settings, i.e. the web.xml context-params or the Launcher options.
+     */
+    public Context(Map<String, String> params, Registry registry, Tracer tracer) {
+        _tracer = tracer;
         _state = State.INITIALIZING;
-        _timer = new Timer();
-        // in 10ms load the database, then every minute cleanup orphaned sessions!
-        _timer.schedule(this, 12, 60000);
+        _maps = new ConcurrentHashMap<String, MapEntry>();
+        _initialized = new AtomicBoolean(false);
+        // optional settings: "xroads-preload" (eager|lazy), "xroads-heap-budget-mb", "xroads-render-cache"
+        // and "xroads-max-batch-sets"
+        String mode = params.get("xroads-preload");
+        _mode = (mode != null) ? Mode.valueOf(mode.toUpperCase()) : Mode.EAGER;
+        String heapBudget = params.get("xroads-heap-budget-mb");
+        _heapBudget = (heapBudget != null) ? Long.parseLong(heapBudget) << 20 : Runtime.getRuntime().maxMemory() / 4;
+        int nThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        _loader = Executors.newFixedThreadPool(nThreads, r -> {
+            Thread t = new Thread(r, "xroads-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        String renderCache = params.get("xroads-render-cache");
+        _renderCache = new RenderCache((renderCache != null) ? Integer.parseInt(renderCache) : 256);
+        String maxBatchSets = params.get("xroads-max-batch-sets");
+        _maxBatchSets = (maxBatchSets != null) ? Integer.parseInt(maxBatchSets) : 1 << MapImage.MAX_POWER_SET_ROUTES;
+        _mapLoads = registry.histogram("xroads_map_load_seconds", "Duration of the xroads map loads and reloads.");
+        registry.gauge("xroads_maps", "Number of xroads maps known.", () -> _maps.size());
+        registry.gauge("xroads_maps_loaded", "Number of xroads maps currently decoded.", () -> countLoaded());
+        registry.gauge("xroads_maps_bytes", "Memory estimated for the decoded xroads maps.", () -> getLoadedFootprint());
+        registry.gauge("xroads_render_cache_entries", "Number of renderings in the xroads render cache.", () -> _renderCache.size());
     }
 
     public boolean isReady() {
@@ -35,39 +121,340 @@ public class Context extends TimerTask {
         return _state;
     }
 
-    @Override
-    public void run() {
-        switch(_state) {
-        case INITIALIZING:
-            runInitialize();
-            break;
-        case READY:
-            runCleanup();
-            break;
-        default:
-            // no action on any of the other states!
-            break;
+    public Mode getMode() {
+        return _mode;
+    }
+
+    /**
+     * Gets the most route sets accepted in one batch request, as many as
+     * the lines of the largest power set by default.
+     */
+    public int getMaxBatchSets() {
+        return _maxBatchSets;
+    }
+
+    /**
+     * Gets the names of all the maps known to this context, loaded or not.
+     * @return the sorted set of map names (i.e. {"Loyal", "Ravenna", ...})
+     */
+    public Set<String> getMapNames() {
+        return new TreeSet<String>(_maps.keySet());
+    }
+
+    /**
+     * Gets the MapImage for the given map name, decoding it first if it is not
+     * currently loaded.
+     * @param mapName - the name of the map (i.e. "Ravenna")
+     * @return the MapImage, or null if there is no such map.
+     * @throws IOException - failure decoding the map file.
+     */
+    public MapImage getMap(String mapName) throws IOException {
+        MapEntry entry = _maps.get(mapName);
+        if (entry == null) {
+            return null;
+        }
+        entry._hits.incrementAndGet();
+        MapImage mapImage = entry._mapImage;
+        if (mapImage == null) {
+            mapImage = loadEntry(mapName, entry);
+            enforceBudget(entry);
+        }
+        return mapImage;
+    }
+
+    /**
+     * Gets the png rendering of the given map with the given routes overlaid on it.
+     * Renderings are cached, such that an unchanged view is not rendered again.
+     * @param mapImage - the map, as returned by {@link #getMap(String)}
+     * @param routes - the routes to be overlaid on the map (i.e. {"AB", "CD"})
+     * @return the png rendering.
+     * @throws IOException - failure encoding the image.
+     */
+    public RenderCache.Rendering getRendering(MapImage mapImage, Collection<String> routes) throws IOException {
+        return _renderCache.getRendering(mapImage, routes);
+    }
+
+    /**
+     * Gets the png rendering of one tile of the given map with the given routes overlaid on it.
+     * Renderings are cached, such that an unchanged view is not rendered again.
+     * @see TilePyramid#getTile(int, int, int, Collection)
+     */
+    public RenderCache.Rendering getTile(MapImage mapImage, int level, int column, int row, Collection<String> routes) throws IOException {
+        return _renderCache.getTile(mapImage, level, column, row, routes);
+    }
+
+    /**
+     * Gets the bytes estimated for all the maps currently decoded, on and off the heap.
+     */
+    public long getLoadedFootprint() {
+        long footprint = 0;
+        for(MapEntry entry : _maps.values()) {
+            if (entry._mapImage != null) {
+                footprint += entry._footprint;
+            }
+        }
+        return footprint;
+    }
+
+    private int countLoaded() {
+        int count = 0;
+        for(MapEntry entry : _maps.values()) {
+            if (entry._mapImage != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long footprintOf(MapImage mapImage) {
+        // base map on the heap, 4 bytes per pixel, plus the off-heap overlays,
+        // plus about a third more for the scaled down levels of the tile pyramid
+        return (4L * mapImage.getWidth() * mapImage.getHeight() + mapImage.getOverlaysCapacity()) * 4 / 3;
+    }
+
+    /**
+     * Builds the tile pyramid of a newly loaded map in the background.
+     */
+    private void buildPyramid(String mapName, MapImage mapImage) {
+        _loader.submit(() -> {
+            long start = System.nanoTime();
+            TilePyramid tilePyramid = mapImage.getTilePyramid();
+            _tracer.trace(Event.XROADS_PYRAMID_BUILT, _tracer.symbol(mapName),
+                    tilePyramid.getLevels(), (System.nanoTime() - start) / 1000000);
+        });
+    }
+
+    /**
+     * Traces the heap and direct memory in use, along with the GC activity so far.
+     */
+    private void reportMemory(Event event) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long direct = 0;
+        for(BufferPoolMXBean bufferPool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (bufferPool.getName().equals("direct")) {
+                direct = bufferPool.getMemoryUsed();
+            }
+        }
+        long gcCount = 0;
+        long gcTime = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += gc.getCollectionCount();
+            gcTime += gc.getCollectionTime();
+        }
+        _tracer.trace(event, heap.getUsed() >> 20, direct >> 20, gcCount, gcTime);
+    }
+
+    private MapImage loadEntry(String mapName, MapEntry entry) throws IOException {
+        synchronized(entry) {
+            if (entry._mapImage == null) {
+                long start = System.nanoTime();
+                MapImage mapImage = MapImage.load(entry._file.getAbsolutePath());
+                mapImage.prewarm();
+                entry._footprint = footprintOf(mapImage);
+                entry._mapImage = mapImage;
+                buildPyramid(mapName, mapImage);
+                _mapLoads.recordSince(start);
+                _tracer.trace(Event.XROADS_MAP_LOADED, _tracer.symbol(mapName),
+                        mapImage.getRoutes().size(), (System.nanoTime() - start) / 1000000);
+            }
+            return entry._mapImage;
+        }
+    }
+
+    /**
+     * Drops the least used maps until the decoded footprint fits the memory budget.
+     * The keep entry (the one just loaded) is never dropped.
+     */
+    private synchronized void enforceBudget(MapEntry keep) {
+        long footprint = getLoadedFootprint();
+        while (footprint > _heapBudget) {
+            MapEntry victim = null;
+            for(MapEntry entry : _maps.values()) {
+                if (entry != keep && entry._mapImage != null
+                        && (victim == null || entry._hits.get() < victim._hits.get())) {
+                    victim = entry;
+                }
+            }
+            if (victim == null) {
+                break;
+            }
+            victim._mapImage = null;
+            footprint -= victim._footprint;
+            _tracer.trace(Event.XROADS_MAP_EVICTED, _tracer.symbol(mapNameOf(victim._file)));
+        }
+    }
+
+    /**
+     * Gets the folder of the maps on the classpath. Maps are listed and watched for changes
+     * on the file system, hence they can't be served from within a jar.
+     * @return the folder, or null if the maps are not in a classpath folder.
+     */
+    private static File getResDir() {
+        URL resUrl = Context.class.getResource("res/");
+        try {
+            return (resUrl != null && resUrl.getProtocol().equals("file")) ? Paths.get(resUrl.toURI()).toFile() : null;
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    private static String mapNameOf(File mapFile) {
+        return mapFile.getName().substring(0, mapFile.getName().length() - ".jpg".length());
+    }
+
+    /**
+     * Decodes and prewarms a changed map file off the request path, then swaps it into the
+     * registry in one step: requests get either the previous MapImage or the new one, never
+     * one partially loaded. Maps which are not currently decoded are left to load on demand.
+     */
+    private void reloadMap(File mapFile) {
+        String mapName = mapNameOf(mapFile);
+        MapEntry entry = _maps.get(mapName);
+        if (entry == null) {
+            entry = new MapEntry(mapFile);
+            MapEntry current = _maps.putIfAbsent(mapName, entry);
+            if (current != null) {
+                entry = current;
+            } else if (_mode == Mode.LAZY) {
+                _tracer.trace(Event.XROADS_MAP_DISCOVERED, _tracer.symbol(mapName));
+                return;
+            }
+        } else if (entry._mapImage == null) {
+            return;
+        }
+
+        try {
+            long start = System.nanoTime();
+            MapImage mapImage = MapImage.load(mapFile.getAbsolutePath());
+            mapImage.prewarm();
+            synchronized(entry) {
+                entry._footprint = footprintOf(mapImage);
+                entry._mapImage = mapImage;
+            }
+            buildPyramid(mapName, mapImage);
+            _mapLoads.recordSince(start);
+            enforceBudget(entry);
+            _tracer.trace(Event.XROADS_MAP_RELOADED, _tracer.symbol(mapName),
+                    mapImage.getRoutes().size(), (System.nanoTime() - start) / 1000000);
+        } catch (IOException | RuntimeException e) {
+            // most likely the file is still being written, the next change event retries it
+            _tracer.trace(Event.XROADS_MAP_RELOAD_FAILED, _tracer.symbol(mapName),
+                    _tracer.symbol(e.getClass().getSimpleName()), _tracer.message(e.getMessage()));
+        }
+    }
+
+    private void startWatcher() {
+        try {
+            _watchService = FileSystems.getDefault().newWatchService();
+            _resDir.toPath().register(_watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            _tracer.trace(Event.XROADS_WATCHER_DISABLED,
+                    _tracer.symbol(e.getClass().getSimpleName()), _tracer.message(e.getMessage()));
+            return;
+        }
+        _watcher = new Thread(this::runWatcher, "xroads-watcher");
+        _watcher.setDaemon(true);
+        _watcher.start();
+    }
+
+    private void runWatcher() {
+        try {
+            while (true) {
+                WatchKey key = _watchService.take();
+                Set<String> changed = new TreeSet<String>();
+                // coalesce the burst of events generated by a single file update
+                while (key != null) {
+                    for(WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            changed.addAll(_maps.keySet());
+                        } else if (event.context().toString().endsWith(".jpg")) {
+                            changed.add(mapNameOf(new File(event.context().toString())));
+                        }
+                    }
+                    key.reset();
+                    key = _watchService.poll(250, TimeUnit.MILLISECONDS);
+                }
+                for(String mapName : changed) {
+                    File mapFile = new File(_resDir, mapName + ".jpg");
+                    if (mapFile.exists()) {
+                        _loader.submit(() -> reloadMap(mapFile));
+                    } else if (_maps.remove(mapName) != null) {
+                        _tracer.trace(Event.XROADS_MAP_REMOVED, _tracer.symbol(mapName));
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // context is closing
         }
     }
 
     public void runInitialize() {
+        // initialization runs only once, no matter how many times it's being called
+        if (!_initialized.compareAndSet(false, true)) {
+            return;
+        }
         synchronized(_state) {
             _state = State.LOADING;
-            System.out.printf("~~~~ XRoads Context state: %s ~~~~\n", _state.name());
+            _tracer.trace(Event.XROADS_STATE, _tracer.symbol(_state.name()));
+        }
+        reportMemory(Event.XROADS_MEMORY_BEFORE);
+        long start = System.nanoTime();
+        _resDir = getResDir();
+        _tracer.trace(Event.XROADS_RES_DIR, _tracer.symbol(String.valueOf(_resDir)));
+        File[] mapFiles = (_resDir != null) ? _resDir.listFiles((dir, name) -> name.endsWith(".jpg")) : null;
+        if (mapFiles != null) {
+            for(File mapFile : mapFiles) {
+                _maps.put(mapNameOf(mapFile), new MapEntry(mapFile));
+            }
+            startWatcher();
+        }
+
+        if (_mode == Mode.EAGER) {
+            ArrayList<Future<MapImage>> loads = new ArrayList<Future<MapImage>>();
+            for(Map.Entry<String, MapEntry> map : _maps.entrySet()) {
+                loads.add(_loader.submit(() -> loadEntry(map.getKey(), map.getValue())));
+            }
+            for(Future<MapImage> load : loads) {
+                try {
+                    load.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    _tracer.trace(Event.XROADS_MAP_LOAD_FAILED,
+                            _tracer.symbol(e.getClass().getSimpleName()), _tracer.message(e.getMessage()));
+                }
+            }
+            enforceBudget(null);
         }
-        String resDirPath = _servletContext.getRealPath("WEB-INF\\classes\\xroads\\res\\");
-        System.out.println(resDirPath);
+        _tracer.trace(Event.XROADS_MAPS_DISCOVERED, _maps.size(), _tracer.symbol(_mode.name()),
+                (System.nanoTime() - start) / 1000000);
+        reportMemory(Event.XROADS_MEMORY_AFTER);
 
         synchronized(_state) {
             _state = State.READY;
-            System.out.printf("~~~~ XRoads Context state: %s ~~~~\n", _state.name());
+            _tracer.trace(Event.XROADS_STATE, _tracer.symbol(_state.name()));
         }
     }
 
     public void runCleanup() {
-
+        // safety net for changes the watcher may have missed
+        for(Map.Entry<String, MapEntry> map : _maps.entrySet()) {
+            if (!map.getValue()._file.exists()) {
+                _maps.remove(map.getKey());
+            }
+        }
+        enforceBudget(null);
     }
 
     public void closing() {
+        if (_watchService != null) {
+            try {
+                _watchService.close();
+            } catch (IOException e) {
+                // nothing left to do, the watcher thread is a daemon
+            }
+        }
+        _loader.shutdownNow();
     }
 }
@@ -2,17 +2,32 @@ package xroads;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntUnaryOperator;
 
 import javax.imageio.ImageIO;
 
 /**
  * Encapsulates a representation of a generic image file. A Drawing object 
  * can be created only by providing a valid image file as argument to its constructor. 
- * In return, the object can be used for accessing and modifying the image at pixel level.
+ * In return, the object can be used for accessing and modifying the image at pixel level.<p>
+ * Besides the per-pixel getPixel/setPixel, pixels can be accessed in bulk, as packed
+ * ARGB ints, through caller supplied buffers or through the image's own int data buffer.
+ * To that end, the image of a drawing is always TYPE_INT_RGB or TYPE_INT_ARGB, one int per
+ * pixel in a data buffer of its own, images of other layouts being converted on creation.
+ * @see #getPixels(int, int, int, int, int[])
+ * @see #getDataBuffer()
+ * @see #mapPixels(IntUnaryOperator)
  */
 public class Drawing {
+    // Tiles processed in parallel by mapPixels() are split until they're this small
+    private static final int _TILE_PIXELS = 128 * 128;
     
     protected BufferedImage _image = null;
     
@@ -28,8 +43,15 @@ public class Drawing {
         return new Drawing(ImageIO.read(drwFile));
     }
     
+    /**
+     * Creates a drawing of the given image. The image is kept as it is if it is int packed
+     * in a buffer of its own, otherwise (i.e. decoded from a .jpg file, or a sub-image of a
+     * larger one) the drawing gets a TYPE_INT_RGB or TYPE_INT_ARGB copy of it.
+     * @param image - the image of the drawing.
+     * @see #getImage()
+     */
     public Drawing(BufferedImage image) {
-        _image = image;
+        _image = toIntPacked(image);
     }
     
     public BufferedImage getImage() {
@@ -71,4 +93,200 @@ public class Drawing {
     public void setPixel(int x, int y, Color c) {
         _image.setRGB(x, y, c.getRGB());
     }
+    
+    // Region: [public] Bulk pixel access
+    /**
+     * Gets the pixels of the given rectangle as packed ARGB ints, row by row.
+     * @param x - x coordinate of the top-left corner.
+     * @param y - y coordinate of the top-left corner.
+     * @param w - width of the rectangle.
+     * @param h - height of the rectangle.
+     * @param buffer - caller-supplied buffer, of at least w * h ints.
+     * @return the buffer given as argument.
+     * @throws ArrayIndexOutOfBoundsException - the rectangle is not within the image
+     * or the buffer is too small for it.
+     */
+    public int[] getPixels(int x, int y, int w, int h, int[] buffer) {
+        checkBounds(x, y, w, h, buffer);
+        int[] data = getIntData();
+        int alpha = hasAlpha() ? 0 : 0xFF000000;
+        for (int row = 0; row < h; row++) {
+            int src = getDataOffset(x, y + row);
+            int dst = row * w;
+            System.arraycopy(data, src, buffer, dst, w);
+            if (alpha != 0) {
+                for (int i = dst; i < dst + w; i++) {
+                    buffer[i] |= alpha;
+                }
+            }
+        }
+        return buffer;
+    }
+    
+    /**
+     * Sets the pixels of the given rectangle from packed ARGB ints, row by row.
+     * @param x - x coordinate of the top-left corner.
+     * @param y - y coordinate of the top-left corner.
+     * @param w - width of the rectangle.
+     * @param h - height of the rectangle.
+     * @param buffer - caller-supplied buffer, of at least w * h ints.
+     * @throws ArrayIndexOutOfBoundsException - the rectangle is not within the image
+     * or the buffer is too small for it.
+     */
+    public void setPixels(int x, int y, int w, int h, int[] buffer) {
+        checkBounds(x, y, w, h, buffer);
+        int[] data = getIntData();
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(buffer, row * w, data, getDataOffset(x, y + row), w);
+        }
+    }
+    
+    /**
+     * Gets the pixels of the row at the given y coordinate as packed ARGB ints.
+     * @param y - y coordinate value.
+     * @param buffer - caller-supplied buffer, of at least getWidth() ints.
+     * @return the buffer given as argument.
+     */
+    public int[] getRow(int y, int[] buffer) {
+        return getPixels(0, y, getWidth(), 1, buffer);
+    }
+    
+    /**
+     * Sets the pixels of the row at the given y coordinate from packed ARGB ints.
+     * @param y - y coordinate value.
+     * @param buffer - caller-supplied buffer, of at least getWidth() ints.
+     */
+    public void setRow(int y, int[] buffer) {
+        setPixels(0, y, getWidth(), 1, buffer);
+    }
+    
+    /**
+     * Gets direct access to the int data buffer backing the image, one int per pixel
+     * in row-major order, with no offset. The image itself is never replaced, so the
+     * buffer stays the one of getImage().
+     * Changes to the buffer are changes to the image.
+     * @return the data buffer of the image.
+     */
+    public DataBufferInt getDataBuffer() {
+        return (DataBufferInt)_image.getRaster().getDataBuffer();
+    }
+    
+    /**
+     * Replaces each pixel of the image with the result of the given operator applied on it.
+     * The image is split into tiles processed in parallel in the common ForkJoin pool.
+     * @param op - operator taking and returning packed ARGB pixel values.
+     * @see #mapPixels(IntUnaryOperator, ForkJoinPool)
+     */
+    public void mapPixels(IntUnaryOperator op) {
+        mapPixels(op, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Replaces each pixel of the image with the result of the given operator applied on it.
+     * The image is split into tiles processed in parallel in the given ForkJoin pool.
+     * @param op - operator taking and returning packed ARGB pixel values.
+     * @param pool - the pool running the tiles.
+     */
+    public void mapPixels(IntUnaryOperator op, ForkJoinPool pool) {
+        int[] data = getDataBuffer().getData();
+        pool.invoke(new PixelTile(data, getWidth(), hasAlpha(), op, 0, 0, getWidth(), getHeight()));
+    }
+    // EndRegion: [public] Bulk pixel access
+    
+    // Region: [private] Bulk pixel helpers
+    private boolean hasAlpha() {
+        return _image.getColorModel().hasAlpha();
+    }
+    
+    /**
+     * Gets the given image if it is int packed as ARGB or RGB, one int per pixel in a buffer
+     * of its own with no offset, or else a copy of it of that layout.
+     */
+    private static BufferedImage toIntPacked(BufferedImage image) {
+        int type = image.getType();
+        WritableRaster raster = image.getRaster();
+        if ((type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)
+                && image.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel)image.getSampleModel()).getScanlineStride() == image.getWidth()
+                && raster.getDataBuffer().getOffset() == 0
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0) {
+            return image;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage copy = new BufferedImage(width, height,
+                image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        // copied pixel by pixel, as drawing would blend translucent pixels over the empty image
+        image.getRGB(0, 0, width, height, ((DataBufferInt)copy.getRaster().getDataBuffer()).getData(), 0, width);
+        return copy;
+    }
+    
+    /**
+     * Gets the int data of the image.
+     */
+    private int[] getIntData() {
+        return ((DataBufferInt)_image.getRaster().getDataBuffer()).getData();
+    }
+    
+    /**
+     * Gets the index in the int data of the pixel at the given coordinates.
+     */
+    private int getDataOffset(int x, int y) {
+        return y * getWidth() + x;
+    }
+    
+    private void checkBounds(int x, int y, int w, int h, int[] buffer) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x > getWidth() - w || y > getHeight() - h) {
+            throw new ArrayIndexOutOfBoundsException(String.format("Rectangle %d,%d %dx%d out of image bounds!", x, y, w, h));
+        }
+        if ((long)w * h > buffer.length) {
+            throw new ArrayIndexOutOfBoundsException("Buffer too small for the rectangle!");
+        }
+    }
+    
+    /**
+     * Rectangle of pixels, split in halves along its longer side until it is small enough
+     * to be mapped in one go.
+     */
+    private static class PixelTile extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private int[] _data;
+        private int _width;
+        private boolean _hasAlpha;
+        private IntUnaryOperator _op;
+        private int _x, _y, _w, _h;
+        
+        private PixelTile(int[] data, int width, boolean hasAlpha, IntUnaryOperator op, int x, int y, int w, int h) {
+            _data = data;
+            _width = width;
+            _hasAlpha = hasAlpha;
+            _op = op;
+            _x = x;
+            _y = y;
+            _w = w;
+            _h = h;
+        }
+        
+        @Override
+        protected void compute() {
+            if (_w * _h <= _TILE_PIXELS) {
+                for (int y = _y; y < _y + _h; y++) {
+                    for (int i = y * _width + _x; i < y * _width + _x + _w; i++) {
+                        _data[i] = _hasAlpha
+                                ? _op.applyAsInt(_data[i])
+                                : _op.applyAsInt(_data[i] | 0xFF000000) & 0x00FFFFFF;
+                    }
+                }
+            } else if (_w >= _h) {
+                int w = _w / 2;
+                invokeAll(new PixelTile(_data, _width, _hasAlpha, _op, _x, _y, w, _h),
+                          new PixelTile(_data, _width, _hasAlpha, _op, _x + w, _y, _w - w, _h));
+            } else {
+                int h = _h / 2;
+                invokeAll(new PixelTile(_data, _width, _hasAlpha, _op, _x, _y, _w, h),
+                          new PixelTile(_data, _width, _hasAlpha, _op, _x, _y + h, _w, _h - h));
+            }
+        }
+    }
+    // EndRegion: [private] Bulk pixel helpers
 }
@@ -1,27 +1,40 @@
 package xroads;
 
-import java.awt.Graphics;
 import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 import javax.imageio.ImageIO;
 
@@ -34,18 +47,31 @@ import com.google.gson.Gson;
  * @see #getRoutes()
  * @see #setOverlays(String...)
  * @see #collide(String...)
+ * @see #collide(List)
+ * @see #collidePowerSet(String...)
  */
 public class MapImage extends Drawing {
+    /**
+     * Maximum number of routes accepted by {@link #collidePowerSet(String...)},
+     * bounding a power set answer to 65536 subsets.
+     */
+    public static final int MAX_POWER_SET_ROUTES = 16;
+    
     // File name for the base map image (i.e. "Ravenna")
     private String _mapName;
-    // Map<overlay_name, overlay_image> (i.e. {<"AB", imageAB>, <"AC", imageAC>, ..})
-    private HashMap<String, BufferedImage> _mapOverlays;
+    // Off-heap palette-indexed overlays, by route name (i.e. {<"AB", overlayAB>, <"AC", overlayAC>, ..})
+    private OverlayStore _mapOverlays;
     // Routes to be overlaid on the map
     private Set<String> _overlays = new HashSet<String>();
 
     // Top-Left and Bottom-Right pixel coordinates for the intersection area of the image
     private Point _centerTL = null;
     private Point _centerBR = null;
+    
+    // Collision mask over the intersection area, built on first use or by prewarm()
+    private volatile CollisionMask _collisionMask = null;
+    // Tile pyramid for the map and its overlays, built on first use
+    private volatile TilePyramid _tilePyramid = null;
 
     // Region: [private] File IO
     /**
@@ -59,10 +85,26 @@ public class MapImage extends Drawing {
         private Point _centerBR;
     };
     
-    private static String imageToBase64(BufferedImage image) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ImageIO.write(image, "png", out);
-        return Base64.getEncoder().encodeToString(out.toByteArray());
+    /**
+     * Encodes an image as base64 png straight into the given stream, leaving the stream open.
+     */
+    private static void writeBase64Png(BufferedImage image, OutputStream out) throws IOException {
+        OutputStream base64 = Base64.getEncoder().wrap(new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+            
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        });
+        if (!ImageIO.write(image, "png", base64)) {
+            throw new IOException("No png writer for the overlay image!");
+        }
+        // writes the base64 padding
+        base64.close();
     }
     
     private static BufferedImage base64ToImage(String base64) throws IOException {
@@ -72,14 +114,8 @@ public class MapImage extends Drawing {
         return image;
     }
     
-    private static byte[] toByteArray(BigInteger big, int minLength) {
-        byte[] base=big.toByteArray();
-        byte[] returnArray=new byte[Math.max(base.length, minLength)];
-        if ((base[0]&128)!=0) {
-            Arrays.fill(returnArray, (byte) 0xFF);
-        }
-        System.arraycopy(base,0,returnArray,returnArray.length-base.length,base.length);
-        return returnArray;
+    private static byte[] toUtf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
     }
     
     private static MapImage loadFromFile(File file) throws IOException {
@@ -88,7 +124,7 @@ public class MapImage extends Drawing {
         byte[] rawOffset = Arrays.copyOfRange(rawBytes, rawBytes.length-4, rawBytes.length);
         BigInteger offset = new BigInteger(rawOffset);
         byte[] rawJsonBytes = Arrays.copyOfRange(rawBytes,  offset.intValue(), rawBytes.length - 4);
-        String rawjson = new String(rawJsonBytes);
+        String rawjson = new String(rawJsonBytes, StandardCharsets.UTF_8);
         Gson deserializer = new Gson();
         MapMetadata mapMetadata = deserializer.fromJson(rawjson, MapMetadata.class);
         byte[] rawImageBytes = Arrays.copyOfRange(rawBytes, 0, offset.intValue());
@@ -99,12 +135,10 @@ public class MapImage extends Drawing {
         mapImage._centerTL = mapMetadata._centerTL;
         mapImage._centerBR = mapMetadata._centerBR;
 
-        for(Map.Entry<String, String> mapOverlayRaw : mapMetadata._mapOverlaysRaw.entrySet())
-        {
-            mapImage._mapOverlays.put(
-                    mapOverlayRaw.getKey(), 
-                    base64ToImage(mapOverlayRaw.getValue()));
-        }
+        // overlays are decoded one at a time, straight into the off-heap store
+        mapImage._mapOverlays = OverlayStore.decode(image.getWidth(), image.getHeight(),
+                new TreeSet<String>(mapMetadata._mapOverlaysRaw.keySet()),
+                route -> base64ToImage(mapMetadata._mapOverlaysRaw.get(route)));
         
         return mapImage;
     }
@@ -117,13 +151,14 @@ public class MapImage extends Drawing {
         
         // Load the overlays into the mapImage
         FilenameFilter overlayFilter = (file, name)-> { return name.matches(dir + "_.+\\.png"); };
-        for (String overlayFileName : dir.list(overlayFilter)) {
-            File overlayFile = new File(dir.getName() + "/" + overlayFileName);
-            String overlayName = overlayFileName.split("_|\\.")[1];
-            mapImage._mapOverlays.put(
-                    overlayName,
-                    ImageIO.read(overlayFile));
+        String[] overlayFileNames = dir.list(overlayFilter);
+        TreeMap<String, File> overlayFiles = new TreeMap<String, File>();
+        for (String overlayFileName : overlayFileNames) {
+            overlayFiles.put(overlayFileName.split("_|\\.")[1], new File(dir.getName() + "/" + overlayFileName));
         }
+        mapImage._mapOverlays = OverlayStore.decode(mapImage.getWidth(), mapImage.getHeight(),
+                overlayFiles.keySet(),
+                route -> ImageIO.read(overlayFiles.get(route)));
         
         // return the newly created and loaded mapImage
         return mapImage;
@@ -160,34 +195,73 @@ public class MapImage extends Drawing {
     /**
      * Saves the content of this MapImage object into an enhanced .jpeg file.
      * The resulting .jpeg file is an image of the base map followed by a 
-     * JSON serialized object containing the routes overlays.
+     * JSON serialized object containing the routes overlays.<p>
+     * The overlays are png encoded one at a time, straight into the temp file the map
+     * is streamed to, such that no more than one overlay is on the heap at a time. The
+     * temp file then atomically replaces the target file, keeping its permissions.
      * @param mapImageFileName - the name of the .jpg file to be created.<br>
      * e.g.: "Ravenna.jpg"
      * @throws IOException - failure in writing to the disk.
      * @see #load(String)
      */
     public void save(String mapImageFileName) throws IOException {
-        MapMetadata mapMetadata = new MapMetadata();
-        mapMetadata._mapName = _mapName;
-        for(Map.Entry<String, BufferedImage> mapOverlay : _mapOverlays.entrySet())
-        {
-            mapMetadata._mapOverlaysRaw.put(
-                    mapOverlay.getKey(),
-                    imageToBase64(mapOverlay.getValue()));
-        }
-        mapMetadata._centerTL = _centerTL;
-        mapMetadata._centerBR = _centerBR;
+        // stream everything into a temp file next to the target, then swap it in place
         Gson serializer = new Gson();
-        String jsonMapRoutes = serializer.toJson(mapMetadata);
-        Path mapImagePath = Paths.get(mapImageFileName);
-        ByteArrayOutputStream mapImageStream = new ByteArrayOutputStream();
-        ImageIO.write(this._image, "jpg", mapImageStream);
-        byte[] mapImageBytes = mapImageStream.toByteArray();
-        Files.write(mapImagePath, mapImageBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        byte[] mapRoutesBytes = jsonMapRoutes.getBytes();
-        Files.write(mapImagePath, mapRoutesBytes, StandardOpenOption.APPEND);
-        byte[] mapImageLenBytes = toByteArray(BigInteger.valueOf(mapImageBytes.length), 4);
-        Files.write(mapImagePath, mapImageLenBytes, StandardOpenOption.APPEND);
+        Path mapImagePath = Paths.get(mapImageFileName).toAbsolutePath();
+        Path tmpImagePath = Files.createTempFile(mapImagePath.getParent(), mapImagePath.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpImagePath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            if (!ImageIO.write(this._image, "jpg", out)) {
+                throw new IOException("No jpg writer for the base map image!");
+            }
+            out.flush();
+            int mapImageLen = (int)channel.position();
+            
+            // JSON metadata, written piece by piece in the same layout as MapMetadata
+            out.write(toUtf8("{\"_mapName\":" + serializer.toJson(_mapName) + ",\"_mapOverlaysRaw\":{"));
+            String separator = "";
+            for(String route : new TreeSet<String>(_mapOverlays.getRoutes())) {
+                out.write(toUtf8(separator + serializer.toJson(route) + ":\""));
+                writeBase64Png(_mapOverlays.getOverlay(route), out);
+                out.write('"');
+                separator = ",";
+            }
+            String centers = "}";
+            if (_centerTL != null) {
+                centers += ",\"_centerTL\":" + serializer.toJson(_centerTL);
+            }
+            if (_centerBR != null) {
+                centers += ",\"_centerBR\":" + serializer.toJson(_centerBR);
+            }
+            out.write(toUtf8(centers + "}"));
+            out.write(ByteBuffer.allocate(4).putInt(mapImageLen).array());
+            out.flush();
+            channel.force(false);
+            if (Files.exists(mapImagePath)) {
+                copyPermissions(mapImagePath, tmpImagePath);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmpImagePath);
+            throw e;
+        }
+        
+        try {
+            Files.move(tmpImagePath, mapImagePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpImagePath, mapImagePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * Gives the replacing file the permissions of the file it replaces, rather than
+     * the owner-only ones temp files are created with.
+     */
+    private static void copyPermissions(Path source, Path target) throws IOException {
+        try {
+            Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(source));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system, there are no such permissions to keep
+        }
     }
     // EndRegion: [public] FileIO
     
@@ -200,12 +274,22 @@ public class MapImage extends Drawing {
     public MapImage(String mapName, BufferedImage baseMap) {
         super(baseMap);
         _mapName = mapName;
-        _mapOverlays = new HashMap<String, BufferedImage>();
+        _mapOverlays = new OverlayStore(baseMap.getWidth(), baseMap.getHeight());
     }
 
     public void setCenter(Point tl, Point br) {
         _centerTL = tl;
         _centerBR = br;
+        _collisionMask = null;
+    }
+    
+    /**
+     * Builds ahead of time the structures derived from the overlays (i.e. the
+     * collision mask) such that the first requests on this map don't pay for it.
+     * @see #collide(String...)
+     */
+    public void prewarm() {
+        getCollisionMask();
     }
     
     /**
@@ -224,7 +308,7 @@ public class MapImage extends Drawing {
      * e.g.: {"AB", "AC", "AD", "BA", "BC", "BD", ...}
      */
     public Set<String> getRoutes() {
-        return _mapOverlays.keySet();
+        return _mapOverlays.getRoutes();
     }
     
     /**
@@ -265,7 +349,8 @@ public class MapImage extends Drawing {
     /**
      * Indicates whether any of the given routes are colliding with any other.
      * A collision is detected if any of the route overlays have non-transparent
-     * pixels of different colors at the same coordinates on the map <br>
+     * pixels of different colors at the same coordinates on the map, shades
+     * of the same route color counting as one color (see {@link OverlayStore#getColorClass}) <br>
      * <p><u>Examples:</u><br>
      * assuming "AB" and "AC" have same color, collide("AB", "AC")
      * returns false<br>
@@ -275,32 +360,30 @@ public class MapImage extends Drawing {
      * @return True if the routes do not collide, false otherwise.
      */
     public boolean collide(String... routes) {
-        int xMin = 0;
-        int yMin = 0;
-        if (_centerTL != null) {
-            xMin = (int)_centerTL.getX();
-            yMin = (int)_centerTL.getY();
-        }
-        int xMax = getWidth();
-        int yMax = getHeight();
-        if (_centerBR != null) {
-            xMax = (int)_centerBR.getX()+1;
-            yMax = (int)_centerBR.getY()+1;
+        CollisionMask collisionMask = getCollisionMask();
+        if (collisionMask != null) {
+            return collisionMask.collide(collisionMask.getMask(routes));
         }
+        
+        int xMin = getXMin();
+        int yMin = getYMin();
+        int xMax = getXMax();
+        int yMax = getYMax();
         for (int x = xMin; x < xMax; x++) {
             for (int y = yMin; y < yMax; y++) {
-                String lastOpaque = null;
+                int firstColorClass = -1;
                 for(String route : routes) {
-                    if (!_mapOverlays.containsKey(route)) {
+                    int index = _mapOverlays.indexOf(route);
+                    if (index < 0) {
                         continue;
                     }
                     
-                    int overlayPix = _mapOverlays.get(route).getRGB(x, y);
-                    if ((overlayPix >> 24) != 0) {
-                        if (lastOpaque == null) {
-                            lastOpaque = route;
+                    int colorClass = _mapOverlays.getColorClass(index, x, y);
+                    if (colorClass >= 0) {
+                        if (firstColorClass < 0) {
+                            firstColorClass = colorClass;
                         }
-                        if (route.charAt(0) != lastOpaque.charAt(0)) {
+                        if (colorClass != firstColorClass) {
                             return true;
                         }
                     }
@@ -311,6 +394,118 @@ public class MapImage extends Drawing {
         return false;
     }
     
+    /**
+     * Indicates, for each of the given sets of routes, whether any of its routes are
+     * colliding with any other. The sets are evaluated in parallel, equal sets only once.
+     * @param routeSets - the list of route sets to be tested.
+     * @return for each route set, true if its routes collide, false otherwise.
+     * @see #collide(String...)
+     */
+    public boolean[] collide(List<String[]> routeSets) {
+        boolean[] results = new boolean[routeSets.size()];
+        CollisionMask collisionMask = getCollisionMask();
+        if (collisionMask != null) {
+            // with a mask each set costs less than looking it up
+            IntStream.range(0, results.length).parallel().forEach(
+                    i -> results[i] = collisionMask.collide(collisionMask.getMask(routeSets.get(i))));
+        } else {
+            Map<Set<String>, Boolean> distinct = new ConcurrentHashMap<Set<String>, Boolean>();
+            IntStream.range(0, results.length).parallel().forEach(
+                    i -> results[i] = distinct.computeIfAbsent(
+                            new TreeSet<String>(Arrays.asList(routeSets.get(i))),
+                            routes -> collide(routes.toArray(new String[0]))));
+        }
+        return results;
+    }
+    
+    /**
+     * Indicates, for every subset of the given routes, whether any of its routes are
+     * colliding with any other. Subset s holds the routes[i] for which bit i of s is set.
+     * Each subset is derived from a smaller one and the pairwise conflicts of the routes,
+     * such that the whole power set is evaluated, in parallel, at a constant cost per subset.
+     * @param routes - at most MAX_POWER_SET_ROUTES route names.
+     * @return the set of the colliding subsets.
+     * @see #collide(String...)
+     */
+    public BitSet collidePowerSet(String... routes) {
+        int n = routes.length;
+        if (n > MAX_POWER_SET_ROUTES) {
+            throw new IllegalArgumentException("Too many routes for a power set!");
+        }
+        // conflicts[i] is the mask of the routes colliding with routes[i]
+        long[] conflicts = new long[n];
+        CollisionMask collisionMask = getCollisionMask();
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                boolean collide = (collisionMask != null)
+                        ? (collisionMask.getConflicts(routes[i]) & collisionMask.getMask(routes[j])) != 0
+                        : collide(routes[i], routes[j]);
+                if (collide) {
+                    conflicts[i] |= 1L << j;
+                    conflicts[j] |= 1L << i;
+                }
+            }
+        }
+        
+        // subsets are split in chunks sharing the same high bits, each chunk filling its own words
+        int chunkBits = Math.min(n, 12);
+        long[] words = new long[Math.max(1, (1 << n) >> 6)];
+        IntStream.range(0, 1 << (n - chunkBits)).parallel().forEach(chunk -> {
+            long high = (long)chunk << chunkBits;
+            boolean[] collides = new boolean[1 << chunkBits];
+            for (long bits = high; bits != 0 && !collides[0]; bits &= bits - 1) {
+                collides[0] = (conflicts[Long.numberOfTrailingZeros(bits)] & high) != 0;
+            }
+            for (int low = 1; low < collides.length; low++) {
+                // the subset without its lowest route, plus the conflicts of that lowest route
+                collides[low] = collides[low & (low - 1)]
+                        || (conflicts[Integer.numberOfTrailingZeros(low)] & (high | low)) != 0;
+            }
+            for (int low = 0; low < collides.length; low++) {
+                if (collides[low]) {
+                    long subset = high | low;
+                    words[(int)(subset >> 6)] |= 1L << subset;
+                }
+            }
+        });
+        return BitSet.valueOf(words);
+    }
+    
+    // Region: [private] Collision helpers
+    private int getXMin() {
+        return (_centerTL != null) ? (int)_centerTL.getX() : 0;
+    }
+    
+    private int getYMin() {
+        return (_centerTL != null) ? (int)_centerTL.getY() : 0;
+    }
+    
+    private int getXMax() {
+        return (_centerBR != null) ? (int)_centerBR.getX()+1 : getWidth();
+    }
+    
+    private int getYMax() {
+        return (_centerBR != null) ? (int)_centerBR.getY()+1 : getHeight();
+    }
+    
+    /**
+     * Gets the collision mask for this map, building it if needed.
+     * @return the collision mask, or null if the map has too many routes for a mask.
+     */
+    private CollisionMask getCollisionMask() {
+        CollisionMask collisionMask = _collisionMask;
+        if (collisionMask == null && _mapOverlays.getRoutes().size() <= CollisionMask.MAX_ROUTES) {
+            synchronized(this) {
+                if (_collisionMask == null) {
+                    _collisionMask = new CollisionMask(_mapOverlays, getXMin(), getYMin(), getXMax(), getYMax());
+                }
+                collisionMask = _collisionMask;
+            }
+        }
+        return collisionMask;
+    }
+    // EndRegion: [private] Collision helpers
+    
     /**
      * Gets the buffered image composing the map with all the requested overlays.
      * @return The bufferd image for the composited map.
@@ -319,14 +514,47 @@ public class MapImage extends Drawing {
      */
     @Override
     public BufferedImage getImage() {
+        return getImage(_overlays);
+    }
+    
+    /**
+     * Gets the buffered image composing the map with the given routes overlaid on it.
+     * Unlike {@link #setOverlays(Collection)}, this does not change the state of this
+     * MapImage, so it is safe to be called concurrently on a shared map.
+     * @param routes - the routes to be overlaid on the map.
+     * @return The bufferd image for the composited map.
+     */
+    public BufferedImage getImage(Collection<String> routes) {
         BufferedImage image = new BufferedImage(getWidth(),getHeight(),BufferedImage.TYPE_INT_ARGB);
-        Graphics g=image.getGraphics();
-        g.drawImage(_image,0,0,null);
-        for (String overlay : _overlays) {
-            if (_mapOverlays.containsKey(overlay)) {
-                g.drawImage(_mapOverlays.get(overlay),0,0,null);
+        int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+        getPixels(0, 0, getWidth(), getHeight(), pixels);
+        _mapOverlays.composite(pixels, routes);
+        return image;
+    }
+    
+    /**
+     * Gets the tile pyramid of this map, building it if needed. Building it is about
+     * as costly as loading the map, so it's best done in the background right after.
+     * @return the tile pyramid of this map.
+     * @see TilePyramid#getTile(int, int, int, Collection)
+     */
+    public TilePyramid getTilePyramid() {
+        TilePyramid tilePyramid = _tilePyramid;
+        if (tilePyramid == null) {
+            synchronized(this) {
+                if (_tilePyramid == null) {
+                    _tilePyramid = new TilePyramid(this, _mapOverlays);
+                }
+                tilePyramid = _tilePyramid;
             }
         }
-        return image;
+        return tilePyramid;
+    }
+    
+    /**
+     * Gets the off-heap bytes held by the overlays of this map.
+     */
+    public long getOverlaysCapacity() {
+        return _mapOverlays.getCapacity();
     }
 }
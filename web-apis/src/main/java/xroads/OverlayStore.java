@@ -0,0 +1,582 @@
+package xroads;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Off-heap storage for the route overlays of a map. A route covers a small part of the map,
+ * so each overlay keeps only the rectangle holding its opaque pixels, one byte per pixel,
+ * all the overlays of a map living in one direct buffer region. The bytes are indices in a
+ * palette of ARGB colors shared by the overlays of the map, index 0 being transparent.<p>
+ * Each palette color also has a color class: routes are drawn in a flat color, with lighter
+ * shades of it here and there, and a color is of the class of the flat color it is a shade of.
+ * Overlays of up to 255 colors are stored as they are. Decoded overlays of more colors are
+ * stored as they are too, with two bytes per pixel, up to 65535 colors. Past that, and past
+ * 255 colors for the scaled down overlays of a tile pyramid, the least used colors get
+ * replaced by their nearest palette color.
+ */
+public class OverlayStore {
+    private static final int _MAX_COLORS = 255;
+    private static final int _MAX_WIDE_COLORS = 0xFFFF;
+
+    /**
+     * Source of the overlay images of a map, decoded one at a time while the store is built.
+     */
+    public interface OverlaySource {
+        BufferedImage getOverlay(String route) throws IOException;
+    }
+
+    /**
+     * The rectangle of the map holding the opaque pixels of an overlay.
+     */
+    private static class Plane {
+        private int _x;
+        private int _y;
+        private int _width;
+        private int _height;
+        // offset of the plane in the region
+        private int _offset;
+        // ARGB pixels of the rectangle, row-major, only until the store is built
+        private int[] _pixels;
+
+        private Plane(int x, int y, int width, int height, int[] pixels) {
+            _x = x;
+            _y = y;
+            _width = width;
+            _height = height;
+            _pixels = pixels;
+        }
+
+        private boolean contains(int x, int y) {
+            return x >= _x && x < _x + _width && y >= _y && y < _y + _height;
+        }
+
+        private int offsetOf(int x, int y) {
+            return _offset + (y - _y) * _width + (x - _x);
+        }
+    }
+
+    private int _width;
+    private int _height;
+    // Map<route_name, overlay_index> (i.e. {<"AB", 0>, <"AC", 1>, ..}), in the order given at creation
+    private Map<String, Integer> _routeIndex;
+    // the plane of each overlay, by overlay index
+    private Plane[] _planes;
+    // palette indices of all the planes, plane after plane
+    private ByteBuffer _indices;
+    // the same region as two byte indices, only when the palette has more than 256 entries
+    private CharBuffer _wideIndices;
+    // ARGB color of each palette index, _palette[0] being transparent
+    private int[] _palette;
+    // color class of each palette index, -1 for the transparent one
+    private int[] _colorClasses;
+
+    /**
+     * Creates a store without any overlay.
+     * @param width - width of the map, in pixels.
+     * @param height - height of the map, in pixels.
+     */
+    public OverlayStore(int width, int height) {
+        this(width, height, new LinkedHashMap<String, Plane>(), false);
+    }
+
+    /**
+     * Builds the store out of the given planes, indexing their pixels in a common palette.
+     * @param planes - the plane of each route, in the order of the overlay indices.
+     * @param quantize - whether past 255 colors the least used ones are replaced, rather than
+     * indexed on two bytes.
+     */
+    private OverlayStore(int width, int height, Map<String, Plane> planes, boolean quantize) {
+        _width = width;
+        _height = height;
+        _routeIndex = new LinkedHashMap<String, Integer>();
+        _planes = new Plane[planes.size()];
+        long capacity = 0;
+        for (Map.Entry<String, Plane> plane : planes.entrySet()) {
+            plane.getValue()._offset = (int)capacity;
+            capacity += (long)plane.getValue()._width * plane.getValue()._height;
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Overlays too large for a single region!");
+            }
+            _planes[_routeIndex.size()] = plane.getValue();
+            _routeIndex.put(plane.getKey(), _routeIndex.size());
+        }
+        Map<Integer, Integer> paletteIndex = buildPalette(quantize ? _MAX_COLORS : _MAX_WIDE_COLORS);
+        boolean wide = _palette.length > 0x100;
+        if (capacity * (wide ? 2 : 1) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Overlays too large for a single region!");
+        }
+        if (wide) {
+            _indices = ByteBuffer.allocateDirect((int)capacity * 2);
+            _wideIndices = _indices.asCharBuffer();
+        } else {
+            _indices = ByteBuffer.allocateDirect((int)capacity);
+        }
+
+        int[] flatColors = new int[_planes.length];
+        for (int index = 0; index < _planes.length; index++) {
+            Plane plane = _planes[index];
+            char[] indices = new char[plane._pixels.length];
+            int[] counts = new int[_palette.length];
+            // pixels come in runs of the same color, looked up once per run
+            int color = 0, colorIndex = 0;
+            for (int i = 0; i < indices.length; i++) {
+                if (plane._pixels[i] != color) {
+                    color = plane._pixels[i];
+                    colorIndex = paletteIndex.get(color);
+                }
+                indices[i] = (char)colorIndex;
+                counts[colorIndex]++;
+            }
+            putIndices(plane._offset, indices);
+            plane._pixels = null;
+            // the flat color of a route is the one most of its pixels have
+            counts[0] = 0;
+            for (int i = 1; i < counts.length; i++) {
+                if (counts[i] > counts[flatColors[index]]) {
+                    flatColors[index] = i;
+                }
+            }
+        }
+        buildColorClasses(flatColors);
+    }
+
+    /**
+     * Builds a store with the given overlays, each image being decoded only when its turn comes
+     * and dropped right after, such that the decoded overlays never sit on the heap all at once.
+     * @param width - width of the map, in pixels.
+     * @param height - height of the map, in pixels.
+     * @param routes - the names of the routes to be stored.
+     * @param source - the source of the overlay images, all of them with the same size as the map.
+     * @throws IOException - failure decoding an overlay.
+     */
+    public static OverlayStore decode(int width, int height, Collection<String> routes, OverlaySource source) throws IOException {
+        Map<String, Plane> planes = new LinkedHashMap<String, Plane>();
+        for (String route : routes) {
+            BufferedImage overlay = source.getOverlay(route);
+            planes.put(route, crop(overlay.getRGB(0, 0, width, height, null, 0, width), width, height));
+        }
+        return new OverlayStore(width, height, planes, false);
+    }
+
+    /**
+     * Crops the pixels of an overlay to the rectangle holding its opaque pixels.
+     * @param pixels - row-major ARGB pixels of an overlay of width x height.
+     */
+    private static Plane crop(int[] pixels, int width, int height) {
+        int xMin = width, yMin = height, xMax = -1, yMax = -1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if ((pixels[y * width + x] >>> 24) != 0) {
+                    xMin = Math.min(xMin, x);
+                    xMax = Math.max(xMax, x);
+                    yMin = Math.min(yMin, y);
+                    yMax = Math.max(yMax, y);
+                }
+            }
+        }
+        if (xMax < 0) {
+            return new Plane(0, 0, 0, 0, new int[0]);
+        }
+        Plane plane = new Plane(xMin, yMin, xMax - xMin + 1, yMax - yMin + 1, null);
+        plane._pixels = new int[plane._width * plane._height];
+        for (int y = 0; y < plane._height; y++) {
+            for (int x = 0; x < plane._width; x++) {
+                int pixel = pixels[(yMin + y) * width + xMin + x];
+                plane._pixels[y * plane._width + x] = ((pixel >>> 24) != 0) ? pixel : 0;
+            }
+        }
+        return plane;
+    }
+
+    /**
+     * Fills the palette with the colors of the planes, the most used ones first.
+     * @param maxColors - the most colors kept, any other is replaced by its nearest palette color.
+     * @return the palette index of each color of the planes.
+     */
+    private Map<Integer, Integer> buildPalette(int maxColors) {
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (Plane plane : _planes) {
+            // pixels come in runs of the same color, counted once per run
+            int color = 0, run = 0;
+            for (int pixel : plane._pixels) {
+                if (pixel != color) {
+                    if (color != 0) {
+                        counts.merge(color, run, Integer::sum);
+                    }
+                    color = pixel;
+                    run = 0;
+                }
+                run++;
+            }
+            if (color != 0) {
+                counts.merge(color, run, Integer::sum);
+            }
+        }
+        List<Integer> colors = new ArrayList<Integer>(counts.keySet());
+        colors.sort((c0, c1) -> (counts.get(c0).equals(counts.get(c1)))
+                ? Integer.compare(c0, c1)
+                : Integer.compare(counts.get(c1), counts.get(c0)));
+        _palette = new int[1 + Math.min(colors.size(), maxColors)];
+        Map<Integer, Integer> paletteIndex = new HashMap<Integer, Integer>();
+        paletteIndex.put(0, 0);
+        for (int i = 0; i < colors.size(); i++) {
+            int color = colors.get(i);
+            if (i < maxColors) {
+                _palette[i + 1] = color;
+                paletteIndex.put(color, i + 1);
+            } else {
+                paletteIndex.put(color, nearestIndex(color));
+            }
+        }
+        return paletteIndex;
+    }
+
+    /**
+     * Gets the palette index of the color closest to the given one, alpha included.
+     */
+    private int nearestIndex(int color) {
+        int nearest = 1;
+        long nearestDistance = Long.MAX_VALUE;
+        for (int i = 1; i < _palette.length; i++) {
+            long distance = 0;
+            for (int shift = 0; shift < 32; shift += 8) {
+                int delta = ((color >>> shift) & 0xFF) - ((_palette[i] >>> shift) & 0xFF);
+                distance += delta * delta;
+            }
+            if (distance < nearestDistance) {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Gives each palette color the class of the flat color it is closest to a shade of,
+     * flat colors of different routes being of the same class only if they are equal.
+     * @param flatColors - the palette index of the flat color of each overlay, 0 if empty.
+     */
+    private void buildColorClasses(int[] flatColors) {
+        List<Integer> classColors = new ArrayList<Integer>();
+        for (int flatColor : flatColors) {
+            if (flatColor != 0 && !classColors.contains(_palette[flatColor])) {
+                classColors.add(_palette[flatColor]);
+            }
+        }
+        _colorClasses = new int[_palette.length];
+        _colorClasses[0] = -1;
+        for (int i = 1; i < _palette.length; i++) {
+            double nearestDistance = Double.MAX_VALUE;
+            for (int colorClass = 0; colorClass < classColors.size(); colorClass++) {
+                double distance = shadeDistance(_palette[i], classColors.get(colorClass));
+                if (distance < nearestDistance) {
+                    _colorClasses[i] = colorClass;
+                    nearestDistance = distance;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the squared distance from a color to the nearest shade of a flat color,
+     * the shades going from the flat color itself up to white. Alpha is ignored.
+     */
+    private static double shadeDistance(int color, int flatColor) {
+        double[] delta = new double[3];
+        double[] toWhite = new double[3];
+        double dot = 0, length = 0;
+        for (int channel = 0; channel < 3; channel++) {
+            int flat = (flatColor >> (8 * channel)) & 0xFF;
+            delta[channel] = ((color >> (8 * channel)) & 0xFF) - flat;
+            toWhite[channel] = 0xFF - flat;
+            dot += delta[channel] * toWhite[channel];
+            length += toWhite[channel] * toWhite[channel];
+        }
+        double shade = (length > 0) ? Math.max(0, Math.min(1, dot / length)) : 0;
+        double distance = 0;
+        for (int channel = 0; channel < 3; channel++) {
+            double d = delta[channel] - shade * toWhite[channel];
+            distance += d * d;
+        }
+        return distance;
+    }
+
+    public int getWidth() {
+        return _width;
+    }
+
+    public int getHeight() {
+        return _height;
+    }
+
+    /**
+     * Gets the off-heap bytes held by this store.
+     */
+    public long getCapacity() {
+        return _indices.capacity();
+    }
+
+    public Set<String> getRoutes() {
+        return Collections.unmodifiableSet(_routeIndex.keySet());
+    }
+
+    /**
+     * Gets the index of the given route in this store.
+     * @return the index of the route, or -1 if the route is not in this store.
+     */
+    public int indexOf(String route) {
+        Integer index = _routeIndex.get(route);
+        return (index != null) ? index : -1;
+    }
+
+    /**
+     * Gets the rectangle of the map out of which the given overlay is transparent.
+     * @param index - the index of the route.
+     */
+    public Rectangle getBounds(int index) {
+        Plane plane = _planes[index];
+        return new Rectangle(plane._x, plane._y, plane._width, plane._height);
+    }
+
+    /**
+     * Gets the ARGB value of a pixel of the given overlay.
+     * @param index - the index of the route.
+     */
+    public int getRGB(int index, int x, int y) {
+        Plane plane = _planes[index];
+        return plane.contains(x, y) ? _palette[getIndex(plane.offsetOf(x, y))] : 0;
+    }
+
+    /**
+     * Gets the color class of a pixel of the given overlay. Pixels of different overlays
+     * are of the same color only if they are of the same color class.
+     * @param index - the index of the route.
+     * @return the color class, or -1 if the pixel is transparent.
+     */
+    public int getColorClass(int index, int x, int y) {
+        Plane plane = _planes[index];
+        return plane.contains(x, y) ? _colorClasses[getIndex(plane.offsetOf(x, y))] : -1;
+    }
+
+    /**
+     * Reads a run of w pixels of the given overlay, starting at (x, y), into the buffer.
+     * @param index - the index of the route.
+     */
+    public void getPixels(int index, int x, int y, int w, int[] buffer) {
+        lookupRun(index, x, y, w, buffer, _palette);
+    }
+
+    /**
+     * Reads the color classes of a run of w pixels of the given overlay, starting at (x, y),
+     * into the buffer, -1 for the transparent pixels.
+     * @param index - the index of the route.
+     */
+    public void getColorClasses(int index, int x, int y, int w, int[] buffer) {
+        lookupRun(index, x, y, w, buffer, _colorClasses);
+    }
+
+    /**
+     * Reads a run of w palette indices of the given overlay, mapped through the lookup table.
+     */
+    private void lookupRun(int index, int x, int y, int w, int[] buffer, int[] lookup) {
+        Arrays.fill(buffer, 0, w, lookup[0]);
+        Plane plane = _planes[index];
+        int left = Math.max(x, plane._x);
+        int right = Math.min(x + w, plane._x + plane._width);
+        if (y < plane._y || y >= plane._y + plane._height || left >= right) {
+            return;
+        }
+        int offset = plane.offsetOf(left, y);
+        if (_wideIndices != null) {
+            for (int i = 0; i < right - left; i++) {
+                buffer[left - x + i] = lookup[_wideIndices.get(offset + i)];
+            }
+        } else {
+            for (int i = 0; i < right - left; i++) {
+                buffer[left - x + i] = lookup[_indices.get(offset + i) & 0xFF];
+            }
+        }
+    }
+
+    /**
+     * Gets the palette index at the given offset of the region.
+     */
+    private int getIndex(int offset) {
+        return (_wideIndices != null) ? _wideIndices.get(offset) : _indices.get(offset) & 0xFF;
+    }
+
+    /**
+     * Reads len palette indices, from the given offset of the region, into the row.
+     * @param bytes - room for len one byte indices.
+     */
+    private void getIndices(int offset, int[] row, int len, byte[] bytes) {
+        if (_wideIndices != null) {
+            for (int i = 0; i < len; i++) {
+                row[i] = _wideIndices.get(offset + i);
+            }
+        } else {
+            _indices.get(offset, bytes, 0, len);
+            for (int i = 0; i < len; i++) {
+                row[i] = bytes[i] & 0xFF;
+            }
+        }
+    }
+
+    /**
+     * Writes palette indices at the given offset of the region.
+     */
+    private void putIndices(int offset, char[] indices) {
+        if (_wideIndices != null) {
+            _wideIndices.put(offset, indices);
+        } else {
+            byte[] bytes = new byte[indices.length];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte)indices[i];
+            }
+            _indices.put(offset, bytes);
+        }
+    }
+
+    /**
+     * Gets a heap copy of an overlay, as an image of the map size.
+     * @param route - the name of the route.
+     */
+    public BufferedImage getOverlay(String route) {
+        BufferedImage overlay = new BufferedImage(_width, _height, BufferedImage.TYPE_INT_ARGB);
+        int[] data = ((DataBufferInt)overlay.getRaster().getDataBuffer()).getData();
+        Plane plane = _planes[indexOf(route)];
+        int[] row = new int[plane._width];
+        byte[] bytes = new byte[plane._width];
+        for (int y = 0; y < plane._height; y++) {
+            getIndices(plane._offset + y * plane._width, row, row.length, bytes);
+            int dst = (plane._y + y) * _width + plane._x;
+            for (int x = 0; x < row.length; x++) {
+                data[dst + x] = _palette[row[x]];
+            }
+        }
+        return overlay;
+    }
+
+    /**
+     * Blends the given routes, in the given order, over an opaque ARGB image of the map size.
+     * Routes not in this store are ignored.
+     * @param image - row-major pixels of an opaque image of _width x _height.
+     * @param routes - the routes to be overlaid.
+     */
+    public void composite(int[] image, Collection<String> routes) {
+        composite(image, 0, 0, _width, _height, routes);
+    }
+
+    /**
+     * Blends the given routes, in the given order, over an opaque ARGB image covering
+     * the w x h rectangle at (x0, y0) of the map. Routes not in this store are ignored.
+     * Only the part of the rectangle covered by the plane of a route is visited.
+     * @param image - row-major pixels of an opaque image of w x h.
+     * @param routes - the routes to be overlaid.
+     */
+    public void composite(int[] image, int x0, int y0, int w, int h, Collection<String> routes) {
+        int[] row = new int[w];
+        byte[] bytes = new byte[w];
+        for (String route : routes) {
+            int index = indexOf(route);
+            if (index < 0) {
+                continue;
+            }
+            Plane plane = _planes[index];
+            int left = Math.max(x0, plane._x);
+            int right = Math.min(x0 + w, plane._x + plane._width);
+            int top = Math.max(y0, plane._y);
+            int bottom = Math.min(y0 + h, plane._y + plane._height);
+            if (left >= right) {
+                continue;
+            }
+            for (int y = top; y < bottom; y++) {
+                getIndices(plane.offsetOf(left, y), row, right - left, bytes);
+                int dst = (y - y0) * w + (left - x0);
+                for (int x = 0; x < right - left; x++) {
+                    int src = _palette[row[x]];
+                    int alpha = src >>> 24;
+                    if (alpha == 0xFF) {
+                        image[dst + x] = src;
+                    } else if (alpha != 0) {
+                        image[dst + x] = blend(src, image[dst + x], alpha);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a store for the same routes, holding the overlays scaled down by half
+     * in each dimension. Each pixel is the average of a 2x2 block, weighted by alpha.
+     */
+    public OverlayStore downsample() {
+        int width = (_width + 1) / 2;
+        int height = (_height + 1) / 2;
+        Map<String, Plane> halfPlanes = new LinkedHashMap<String, Plane>();
+        for (Map.Entry<String, Integer> route : _routeIndex.entrySet()) {
+            int index = route.getValue();
+            Plane plane = _planes[index];
+            if (plane._width == 0) {
+                halfPlanes.put(route.getKey(), new Plane(0, 0, 0, 0, new int[0]));
+                continue;
+            }
+            // the half pixels having any of their 2x2 block in the plane
+            int xMin = plane._x / 2;
+            int yMin = plane._y / 2;
+            int halfWidth = (plane._x + plane._width + 1) / 2 - xMin;
+            int halfHeight = (plane._y + plane._height + 1) / 2 - yMin;
+            int[] pixels = new int[halfWidth * halfHeight];
+            for (int y = 0; y < halfHeight; y++) {
+                int y0 = 2 * (yMin + y);
+                int y1 = Math.min(y0 + 1, _height - 1);
+                for (int x = 0; x < halfWidth; x++) {
+                    int x0 = 2 * (xMin + x);
+                    int x1 = Math.min(x0 + 1, _width - 1);
+                    pixels[y * halfWidth + x] = average(
+                            getRGB(index, x0, y0), getRGB(index, x1, y0),
+                            getRGB(index, x0, y1), getRGB(index, x1, y1));
+                }
+            }
+            halfPlanes.put(route.getKey(), new Plane(xMin, yMin, halfWidth, halfHeight, pixels));
+        }
+        return new OverlayStore(width, height, halfPlanes, true);
+    }
+
+    /**
+     * Averages four ARGB pixels, weighting their colors by their alpha.
+     */
+    static int average(int p0, int p1, int p2, int p3) {
+        int a0 = p0 >>> 24, a1 = p1 >>> 24, a2 = p2 >>> 24, a3 = p3 >>> 24;
+        int alpha = a0 + a1 + a2 + a3;
+        if (alpha == 0) {
+            return 0;
+        }
+        int r = (((p0 >> 16) & 0xFF) * a0 + ((p1 >> 16) & 0xFF) * a1 + ((p2 >> 16) & 0xFF) * a2 + ((p3 >> 16) & 0xFF) * a3) / alpha;
+        int g = (((p0 >> 8) & 0xFF) * a0 + ((p1 >> 8) & 0xFF) * a1 + ((p2 >> 8) & 0xFF) * a2 + ((p3 >> 8) & 0xFF) * a3) / alpha;
+        int b = ((p0 & 0xFF) * a0 + (p1 & 0xFF) * a1 + (p2 & 0xFF) * a2 + (p3 & 0xFF) * a3) / alpha;
+        return ((alpha / 4) << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private static int blend(int src, int dst, int alpha) {
+        int inverse = 0xFF - alpha;
+        int r = (((src >> 16) & 0xFF) * alpha + ((dst >> 16) & 0xFF) * inverse + 127) / 0xFF;
+        int g = (((src >> 8) & 0xFF) * alpha + ((dst >> 8) & 0xFF) * inverse + 127) / 0xFF;
+        int b = ((src & 0xFF) * alpha + (dst & 0xFF) * inverse + 127) / 0xFF;
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+}
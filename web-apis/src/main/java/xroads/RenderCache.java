@@ -0,0 +1,196 @@
+package xroads;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Least-recently-used cache of png encoded map renderings. A rendering is keyed by
+ * the map name, the view (whole map or one tile) and the set of routes overlaid on it,
+ * and it is valid only for the
+ * MapImage it was rendered from, such that a hot reloaded map is rendered again.<p>
+ * Each key holds the future of its rendering, such that concurrent requests for the same
+ * rendering render and encode it only once: the first one renders it while the others wait.
+ */
+public class RenderCache {
+    private static final int _MAX_WRITERS = 8;
+
+    /**
+     * Pre-encoded image bytes along with their strong entity tag.
+     */
+    public static class Rendering {
+        // weakly held such that the cache doesn't keep alive maps evicted or reloaded
+        private WeakReference<MapImage> _source;
+        private byte[] _bytes;
+        private String _etag;
+
+        private Rendering(MapImage source, byte[] bytes, String etag) {
+            _source = new WeakReference<MapImage>(source);
+            _bytes = bytes;
+            _etag = etag;
+        }
+
+        public byte[] getBytes() {
+            return _bytes;
+        }
+
+        public String getETag() {
+            return _etag;
+        }
+    }
+
+    private Map<String, CompletableFuture<Rendering>> _renderings;
+    private Queue<ImageWriter> _writers;
+
+    public RenderCache(int capacity) {
+        _renderings = new LinkedHashMap<String, CompletableFuture<Rendering>>(capacity, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Rendering>> eldest) {
+                return size() > capacity;
+            }
+        };
+        _writers = new ConcurrentLinkedQueue<ImageWriter>();
+    }
+
+    /**
+     * Gets the rendering of the given map with the given routes overlaid on it,
+     * rendering and encoding it only if it's not already in the cache.
+     * @param mapImage - the map to be rendered.
+     * @param routes - the routes to be overlaid on the map.
+     * @return the png rendering of the composited map.
+     * @throws IOException - failure encoding the image.
+     */
+    public Rendering getRendering(MapImage mapImage, Collection<String> routes) throws IOException {
+        return getRendering(mapImage, "", routes, overlays -> mapImage.getImage(overlays));
+    }
+
+    /**
+     * Gets the rendering of one tile of the given map with the given routes overlaid on it,
+     * rendering and encoding it only if it's not already in the cache.
+     * @param mapImage - the map to be rendered.
+     * @param level - the level of the tile in the map's tile pyramid.
+     * @param column - the tile column.
+     * @param row - the tile row.
+     * @param routes - the routes to be overlaid on the tile.
+     * @return the png rendering of the composited tile.
+     * @throws IOException - failure encoding the image.
+     * @see TilePyramid#getTile(int, int, int, Collection)
+     */
+    public Rendering getTile(MapImage mapImage, int level, int column, int row, Collection<String> routes) throws IOException {
+        String view = String.format("%d/%d/%d", level, column, row);
+        return getRendering(mapImage, view, routes, overlays -> mapImage.getTilePyramid().getTile(level, column, row, overlays));
+    }
+
+    private Rendering getRendering(MapImage mapImage, String view, Collection<String> routes, Function<SortedSet<String>, BufferedImage> renderer) throws IOException {
+        SortedSet<String> overlays = new TreeSet<String>(routes);
+        overlays.retainAll(mapImage.getRoutes());
+        String key = mapImage.getMapName() + ":" + view + ":" + String.join(",", overlays);
+        while (true) {
+            CompletableFuture<Rendering> flight = new CompletableFuture<Rendering>();
+            CompletableFuture<Rendering> cached;
+            synchronized(_renderings) {
+                // a failed rendering or one of a map since reloaded gets replaced
+                cached = _renderings.compute(key, (k, current) -> isStale(current, mapImage) ? flight : current);
+            }
+            if (cached == flight) {
+                return render(key, flight, mapImage, overlays, renderer);
+            }
+            Rendering rendering;
+            try {
+                rendering = cached.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw new IOException(e.getCause());
+                }
+                throw e;
+            }
+            // the rendering waited on might be of the map before a reload
+            if (rendering._source.get() == mapImage) {
+                return rendering;
+            }
+        }
+    }
+
+    private static boolean isStale(CompletableFuture<Rendering> flight, MapImage mapImage) {
+        if (flight == null || flight.isCompletedExceptionally()) {
+            return true;
+        }
+        Rendering rendering = flight.getNow(null);
+        return rendering != null && rendering._source.get() != mapImage;
+    }
+
+    private Rendering render(String key, CompletableFuture<Rendering> flight, MapImage mapImage, SortedSet<String> overlays, Function<SortedSet<String>, BufferedImage> renderer) throws IOException {
+        try {
+            byte[] bytes = encodePng(renderer.apply(overlays));
+            Rendering rendering = new Rendering(mapImage, bytes, eTagOf(bytes));
+            flight.complete(rendering);
+            return rendering;
+        } catch (IOException | RuntimeException | Error e) {
+            // let the waiters fail as well, and the next request try again
+            synchronized(_renderings) {
+                _renderings.remove(key, flight);
+            }
+            flight.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public int size() {
+        synchronized(_renderings) {
+            return _renderings.size();
+        }
+    }
+
+    private byte[] encodePng(BufferedImage image) throws IOException {
+        ImageWriter writer = _writers.poll();
+        if (writer == null) {
+            writer = ImageIO.getImageWritersByFormatName("png").next();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(imageOut);
+            writer.write(image);
+        } finally {
+            writer.reset();
+            if (_writers.size() < _MAX_WRITERS) {
+                _writers.offer(writer);
+            } else {
+                writer.dispose();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static String eTagOf(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder eTag = new StringBuilder("\"");
+            for (int i = 0; i < 16; i++) {
+                eTag.append(String.format("%02x", digest[i]));
+            }
+            return eTag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,41 +1,49 @@
 package xroads;
 
 import java.io.IOException;
-import java.util.Map;
 
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import admission.Controller;
+import async.Dispatcher;
+import web.Application;
+import web.ServletExchange;
 
-@WebServlet("/xroads")
+@WebServlet(urlPatterns = "/xroads", asyncSupported = true)
 public class Servlet extends HttpServlet{
     private static final long serialVersionUID = 3L;
 
-    private Context _context;
+    private Api _api;
+    private Dispatcher _dispatcher;
 
      /**
      * On initialization retrieve and retain _serverContext 
      */
     public void init() throws ServletException {
-        _context = (Context) getServletContext().getAttribute("context-xroads");
-    }
-
-    private static void checkTrue(boolean condition, String message) {
-        if (!condition) {
-            throw new RuntimeException("##Err##: " + message);
-        }
+        _dispatcher = (Dispatcher) getServletContext().getAttribute("context-dispatcher");
+        Application application = (Application) getServletContext().getAttribute("context-application");
+        _api = application.getXRoadsApi();
     }
 
     /**
      * Parse a "http://.../web-apis/xroads?" request
      */
-    @SuppressWarnings("null")
     public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-        Map<String, String[]> params = request.getParameterMap();
-        _context.runInitialize();
-        response.setContentType("text/plain");
-        response.getOutputStream().print("Not implemented yet!");
+        long start = System.nanoTime();
+        ServletExchange exchange = new ServletExchange(request, response);
+        // in ASYNC mode the container thread doesn't wait for a slot, the compute pool queues the requests
+        Controller.Permit permit = _api.admit(exchange, _dispatcher.getMode() == Dispatcher.Mode.BLOCKING);
+        if (permit == null) {
+            _api.complete(exchange, start);
+            return;
+        }
+        _dispatcher.dispatch(request, response,
+                (req, res) -> _api.handle(new ServletExchange(req, res)),
+                () -> permit.release(),
+                (req, res) -> permit.shed(exchange),
+                () -> _api.complete(exchange, start));
     }
 }
@@ -0,0 +1,145 @@
+package xroads;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Multi-resolution view of a map and its route overlays, cut into square tiles.
+ * Level 0 is the map at full resolution and each next level is half the size of the
+ * previous one, down to the level fitting in a single tile. A tile is composited only
+ * from the base map and overlay pixels of its own level and area.
+ * @see MapImage#getTilePyramid()
+ */
+public class TilePyramid {
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * The base map and the overlays at one resolution. The base map of level 0
+     * is not copied, it is read from the MapImage itself.
+     */
+    private static class Level {
+        private int _width;
+        private int _height;
+        private int[] _base;
+        private OverlayStore _overlays;
+
+        private Level(int width, int height, int[] base, OverlayStore overlays) {
+            _width = width;
+            _height = height;
+            _base = base;
+            _overlays = overlays;
+        }
+    }
+
+    private Drawing _drawing;
+    private Level[] _levels;
+
+    /**
+     * Builds all the levels of the pyramid for the given map and its overlays.
+     */
+    TilePyramid(Drawing drawing, OverlayStore overlays) {
+        _drawing = drawing;
+        List<Level> levels = new ArrayList<Level>();
+        int width = drawing.getWidth();
+        int height = drawing.getHeight();
+        levels.add(new Level(width, height, null, overlays));
+        int[] base = drawing.getPixels(0, 0, width, height, new int[width * height]);
+        while (Math.max(width, height) > TILE_SIZE) {
+            int halfWidth = (width + 1) / 2;
+            int halfHeight = (height + 1) / 2;
+            int[] halfBase = new int[halfWidth * halfHeight];
+            for (int y = 0; y < halfHeight; y++) {
+                int row0 = 2 * y * width;
+                int row1 = Math.min(2 * y + 1, height - 1) * width;
+                for (int x = 0; x < halfWidth; x++) {
+                    int x1 = Math.min(2 * x + 1, width - 1);
+                    halfBase[y * halfWidth + x] = OverlayStore.average(
+                            base[row0 + 2 * x], base[row0 + x1],
+                            base[row1 + 2 * x], base[row1 + x1]);
+                }
+            }
+            overlays = overlays.downsample();
+            width = halfWidth;
+            height = halfHeight;
+            base = halfBase;
+            levels.add(new Level(width, height, base, overlays));
+        }
+        _levels = levels.toArray(new Level[0]);
+    }
+
+    /**
+     * Gets the number of levels in the pyramid, level 0 being the full resolution.
+     */
+    public int getLevels() {
+        return _levels.length;
+    }
+
+    public int getWidth(int level) {
+        return _levels[level]._width;
+    }
+
+    public int getHeight(int level) {
+        return _levels[level]._height;
+    }
+
+    /**
+     * Gets the number of tile columns at the given level.
+     */
+    public int getColumns(int level) {
+        return (getWidth(level) + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    /**
+     * Gets the number of tile rows at the given level.
+     */
+    public int getRows(int level) {
+        return (getHeight(level) + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    /**
+     * Gets the off-heap bytes held by the overlays of the scaled down levels.
+     */
+    public long getCapacity() {
+        long capacity = 0;
+        for (int level = 1; level < _levels.length; level++) {
+            capacity += _levels[level]._overlays.getCapacity();
+        }
+        return capacity;
+    }
+
+    /**
+     * Gets one tile of the map, at the given level, with the given routes overlaid on it.
+     * Tiles on the right and bottom edges may be smaller than TILE_SIZE.
+     * @param level - the level, 0 being the full resolution.
+     * @param column - the tile column, 0 being the left-most.
+     * @param row - the tile row, 0 being the top-most.
+     * @param routes - the routes to be overlaid on the tile.
+     * @return the image of the composited tile.
+     */
+    public BufferedImage getTile(int level, int column, int row, Collection<String> routes) {
+        if (level < 0 || level >= _levels.length
+                || column < 0 || column >= getColumns(level)
+                || row < 0 || row >= getRows(level)) {
+            throw new IllegalArgumentException("Invalid tile!");
+        }
+        Level tileLevel = _levels[level];
+        int x0 = column * TILE_SIZE;
+        int y0 = row * TILE_SIZE;
+        int w = Math.min(TILE_SIZE, tileLevel._width - x0);
+        int h = Math.min(TILE_SIZE, tileLevel._height - y0);
+        BufferedImage tile = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt)tile.getRaster().getDataBuffer()).getData();
+        if (tileLevel._base == null) {
+            _drawing.getPixels(x0, y0, w, h, pixels);
+        } else {
+            for (int y = 0; y < h; y++) {
+                System.arraycopy(tileLevel._base, (y0 + y) * tileLevel._width + x0, pixels, y * w, w);
+            }
+        }
+        tileLevel._overlays.composite(pixels, x0, y0, w, h, routes);
+        return tile;
+    }
+}
@@ -0,0 +1,105 @@
+package wordle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks the packed patterns, and the adversarial sessions built on them, against the hints
+ * Word.getHints gives, in particular for words repeating some of their letters.
+ */
+public class WordTest {
+    private static final String WORDLE_CSV = "src/main/java/wordle/res/wordle.csv";
+
+    private static List<Word> _words;
+    private static Dictionary _dictionary;
+
+    @BeforeClass
+    public static void loadWords() throws IOException {
+        _words = new ArrayList<Word>();
+        for (String line : Files.readAllLines(Paths.get(WORDLE_CSV))) {
+            if (!line.startsWith("word,")) {
+                _words.add(new Word(line));
+            }
+        }
+        Collections.sort(_words);
+        _dictionary = new Dictionary(_words, 5);
+    }
+
+    private static boolean hasRepeatedLetter(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (word.indexOf(word.charAt(i), i + 1) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void assertPatternMatchesHints(Word secret, String word) {
+        String message = secret.getWord() + " vs " + word;
+        assertEquals(message, secret.getHints(word), Word.toHints(word, secret.getPattern(word)));
+    }
+
+    @Test
+    public void repeatedLetters() {
+        String[][] pairs = {
+            { "ABBEY", "BABES" }, { "SPEED", "ERASE" }, { "LLAMA", "ALLAY" }, { "EERIE", "GEESE" },
+            { "MAMMA", "AMMAM" }, { "EERIE", "EEEEE" }, { "ROBOT", "OOOOO" }, { "ALLAY", "LLAMA" },
+            // out of the 'A'..'Z' range, patterns are computed the slow way
+            { "A1B1A", "1AA1B" }, { "ABCDE", "abcde" }
+        };
+        for (String[] pair : pairs) {
+            assertPatternMatchesHints(new Word(pair[0] + ",1e-06,"), pair[1]);
+        }
+    }
+
+    @Test
+    public void repeatedLettersAcrossTheDictionary() {
+        List<Word> repeated = new ArrayList<Word>();
+        for (Word word : _words) {
+            if (hasRepeatedLetter(word.getWord()) && repeated.size() < 300) {
+                repeated.add(word);
+            }
+        }
+        for (Word secret : repeated) {
+            for (Word guess : repeated) {
+                assertPatternMatchesHints(secret, guess.getWord());
+            }
+        }
+        for (int index = 0; index < _dictionary.size(); index += 37) {
+            for (Word guess : repeated) {
+                assertEquals(_dictionary.getWord(index).getPattern(guess.getWord()), _dictionary.getPattern(index, guess.getWord()));
+            }
+        }
+    }
+
+    @Test
+    public void adversarialHintsMatchTheSettledSecret() {
+        Random random = new Random(3);
+        for (int game = 0; game < 20; game++) {
+            Session session = new Session("test", _dictionary);
+            List<String> guesses = new ArrayList<String>();
+            while (guesses.size() < 50 && session.getCandidateCount() > 1) {
+                String guess = _dictionary.getWord(random.nextInt(_dictionary.size())).getWord();
+                session.checkWord(guess);
+                guesses.add(guess);
+            }
+            Word secret = session.getSecret();
+            List<String> hints = session.getGuesses();
+            for (int i = 0; i < guesses.size(); i++) {
+                assertEquals(String.format("%s > %s", guesses.get(i), secret.getHints(guesses.get(i))), hints.get(i));
+            }
+            assertTrue(session.checkWord(secret.getWord()));
+        }
+    }
+}
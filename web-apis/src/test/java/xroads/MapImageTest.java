@@ -0,0 +1,218 @@
+package xroads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import web.Exchange;
+
+/**
+ * Checks the collision shortcuts (collision mask, power set, batches) against the plain
+ * pixel scan, on a bundled map and on a copy of it with too many routes for a mask.
+ */
+public class MapImageTest {
+    private static final String MAP_PATH = "src/main/java/xroads/res/Ravenna.jpg";
+    // Number of renamed copies of each route in the map with too many routes for a mask
+    private static final int COPIES = 5;
+
+    @ClassRule
+    public static TemporaryFolder _tmp = new TemporaryFolder();
+
+    private static MapImage _map;
+    private static MapImage _bigMap;
+    private static String[] _routes;
+
+    /**
+     * Response of a batch or power set request, kept in memory.
+     */
+    private static class BufferExchange implements Exchange {
+        private ByteArrayOutputStream _body = new ByteArrayOutputStream();
+
+        public Map<String, String[]> getParameters() { return null; }
+        public String getHeader(String name) { return null; }
+        public String getRemoteAddress() { return "localhost"; }
+        public int getStatus() { return 200; }
+        public void setStatus(int status) { }
+        public void setHeader(String name, String value) { }
+        public void setContentType(String contentType) { }
+        public void setContentLength(long contentLength) { }
+        public OutputStream getOutputStream() { return _body; }
+
+        private List<JsonObject> getLines() {
+            List<JsonObject> lines = new ArrayList<JsonObject>();
+            for (String line : _body.toString(StandardCharsets.UTF_8).split("\n")) {
+                lines.add(JsonParser.parseString(line).getAsJsonObject());
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * Writes a copy of the enhanced map file where each route also comes as COPIES
+     * renamed routes (i.e. "AB" and "AB0", "AB1", ..) with the very same overlay.
+     */
+    private static File writeBigMap(File mapFile) throws IOException {
+        byte[] rawBytes = Files.readAllBytes(mapFile.toPath());
+        int mapImageLen = ByteBuffer.wrap(rawBytes, rawBytes.length - 4, 4).getInt();
+        JsonObject metadata = JsonParser.parseString(new String(rawBytes, mapImageLen,
+                rawBytes.length - 4 - mapImageLen, StandardCharsets.UTF_8)).getAsJsonObject();
+        JsonObject overlaysRaw = metadata.getAsJsonObject("_mapOverlaysRaw");
+        for (String route : new TreeSet<String>(overlaysRaw.keySet())) {
+            for (int copy = 0; copy < COPIES; copy++) {
+                overlaysRaw.add(route + copy, overlaysRaw.get(route));
+            }
+        }
+        File bigMapFile = _tmp.newFile("BigRavenna.jpg");
+        try (OutputStream out = Files.newOutputStream(bigMapFile.toPath())) {
+            out.write(rawBytes, 0, mapImageLen);
+            out.write(metadata.toString().getBytes(StandardCharsets.UTF_8));
+            out.write(ByteBuffer.allocate(4).putInt(mapImageLen).array());
+        }
+        return bigMapFile;
+    }
+
+    @BeforeClass
+    public static void loadMaps() throws IOException {
+        _map = MapImage.load(MAP_PATH);
+        _bigMap = MapImage.load(writeBigMap(new File(MAP_PATH)).getPath());
+        _routes = new TreeSet<String>(_map.getRoutes()).toArray(new String[0]);
+    }
+
+    private static String[] randomSet(Random random, String[] routes, int size) {
+        String[] set = new String[size];
+        for (int i = 0; i < size; i++) {
+            set[i] = routes[random.nextInt(routes.length)];
+        }
+        return set;
+    }
+
+    @Test
+    public void bigMapHasTooManyRoutesForAMask() {
+        assertEquals(_routes.length * (COPIES + 1), _bigMap.getRoutes().size());
+        assertTrue(_bigMap.getRoutes().size() > CollisionMask.MAX_ROUTES);
+    }
+
+    @Test
+    public void maskMatchesPixelScan() {
+        Random random = new Random(1);
+        int collisions = 0;
+        for (int i = 0; i < 300; i++) {
+            String[] set = randomSet(random, _routes, 2 + random.nextInt(4));
+            // the same routes under their copies' names, such that the big map scans the pixels
+            String[] copies = new String[set.length];
+            for (int j = 0; j < set.length; j++) {
+                copies[j] = set[j] + random.nextInt(COPIES);
+            }
+            assertEquals(Arrays.toString(set), _bigMap.collide(copies), _map.collide(set));
+            collisions += _map.collide(set) ? 1 : 0;
+        }
+        // both outcomes are covered
+        assertTrue(collisions > 0 && collisions < 300);
+    }
+
+    @Test
+    public void powerSetMatchesPairwiseCollide() {
+        String[] routes = Arrays.copyOf(_routes, Math.min(10, _routes.length));
+        BitSet results = _map.collidePowerSet(routes);
+        BitSet scanResults = _bigMap.collidePowerSet(routes);
+        for (int subset = 0; subset < (1 << routes.length); subset++) {
+            List<String> subsetRoutes = new ArrayList<String>();
+            boolean pairwise = false;
+            for (int i = 0; i < routes.length; i++) {
+                if ((subset & (1 << i)) != 0) {
+                    for (String other : subsetRoutes) {
+                        pairwise |= _map.collide(routes[i], other);
+                    }
+                    subsetRoutes.add(routes[i]);
+                }
+            }
+            assertEquals(subsetRoutes.toString(), pairwise, results.get(subset));
+            assertEquals(subsetRoutes.toString(), _map.collide(subsetRoutes.toArray(new String[0])), results.get(subset));
+            assertEquals(subsetRoutes.toString(), pairwise, scanResults.get(subset));
+        }
+    }
+
+    @Test
+    public void batchOfMoreThan64Routes() throws IOException {
+        String[] allRoutes = new TreeSet<String>(_bigMap.getRoutes()).toArray(new String[0]);
+        Random random = new Random(2);
+        List<String[]> routeSets = new ArrayList<String[]>();
+        routeSets.add(allRoutes);
+        routeSets.add(randomSet(random, allRoutes, 70));
+        routeSets.add(new String[0]);
+        routeSets.add(new String[] { _routes[0], _routes[0] + "0" });
+        boolean[] results = _bigMap.collide(routeSets);
+        for (int i = 0; i < routeSets.size(); i++) {
+            assertEquals(_bigMap.collide(routeSets.get(i)), results[i]);
+        }
+        assertEquals(_map.collide(_routes), results[0]);
+
+        BufferExchange exchange = new BufferExchange();
+        Api.writeBatch(exchange, _bigMap.getMapName(), routeSets, results);
+        List<JsonObject> lines = exchange.getLines();
+        assertEquals(routeSets.size(), lines.size());
+        for (int i = 0; i < routeSets.size(); i++) {
+            JsonArray routes = lines.get(i).getAsJsonArray("_routes");
+            List<String> names = new ArrayList<String>();
+            for (JsonElement route : routes) {
+                names.add(route.getAsString());
+            }
+            assertEquals(Arrays.asList(routeSets.get(i)), names);
+            assertEquals(results[i], lines.get(i).get("_collide").getAsBoolean());
+        }
+    }
+
+    @Test
+    public void batchEscapesNames() throws IOException {
+        List<String[]> routeSets = new ArrayList<String[]>();
+        routeSets.add(new String[] { "A\"B", "C\\D" });
+        BufferExchange exchange = new BufferExchange();
+        Api.writeBatch(exchange, "Map \"1\"", routeSets, new boolean[] { false });
+        JsonObject line = exchange.getLines().get(0);
+        assertEquals("Map \"1\"", line.get("_map").getAsString());
+        assertEquals("A\"B", line.getAsJsonArray("_routes").get(0).getAsString());
+        assertEquals("C\\D", line.getAsJsonArray("_routes").get(1).getAsString());
+    }
+
+    @Test
+    public void powerSetLinesListTheSubsetRoutes() throws IOException {
+        String[] routes = Arrays.copyOf(_routes, 4);
+        BitSet results = _map.collidePowerSet(routes);
+        BufferExchange exchange = new BufferExchange();
+        Api.writePowerSet(exchange, _map.getMapName(), routes, results);
+        List<JsonObject> lines = exchange.getLines();
+        assertEquals(1 << routes.length, lines.size());
+        for (int subset = 0; subset < lines.size(); subset++) {
+            JsonArray names = lines.get(subset).getAsJsonArray("_routes");
+            assertEquals(Integer.bitCount(subset), names.size());
+            for (JsonElement name : names) {
+                assertTrue((subset & (1 << Arrays.asList(routes).indexOf(name.getAsString()))) != 0);
+            }
+            assertEquals(results.get(subset), lines.get(subset).get("_collide").getAsBoolean());
+        }
+    }
+}
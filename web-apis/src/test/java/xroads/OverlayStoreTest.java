@@ -0,0 +1,112 @@
+package xroads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks the overlays of more than 255 colors are stored as they are, their color
+ * classes unchanged, while the overlays of a tile pyramid still take one byte per pixel.
+ */
+public class OverlayStoreTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 64;
+    // Lighter, and partly transparent, shades of its flat color drawn by each route, 600 colors in all
+    private static final int SHADES = 300;
+
+    private static Map<String, BufferedImage> _overlays;
+    private static OverlayStore _store;
+
+    /**
+     * Draws a route in its flat color, with a different shade of it every few pixels.
+     * @param rowMin, rowMax - the rows of the map covered by the route, [rowMin, rowMax).
+     */
+    private static BufferedImage drawRoute(int flatColor, int rowMin, int rowMax) {
+        BufferedImage overlay = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        int shade = 0;
+        for (int y = rowMin; y < rowMax; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int color = flatColor;
+                if ((x + y) % 3 == 0 && shade < SHADES) {
+                    // mixes the flat color with up to 40% of white, channel by channel
+                    int step = 1 + shade % 100;
+                    color = (0xFF - shade++ / 100) << 24;
+                    for (int shift = 0; shift < 24; shift += 8) {
+                        int flat = (flatColor >> shift) & 0xFF;
+                        color |= (flat + (0xFF - flat) * step / 250) << shift;
+                    }
+                }
+                overlay.setRGB(x, y, color);
+            }
+        }
+        return overlay;
+    }
+
+    @BeforeClass
+    public static void buildStore() throws IOException {
+        _overlays = new HashMap<String, BufferedImage>();
+        _overlays.put("AB", drawRoute(0xFFC00000, 0, 40));
+        _overlays.put("CD", drawRoute(0xFF0000C0, 24, 64));
+        _store = OverlayStore.decode(WIDTH, HEIGHT, Arrays.asList("AB", "CD"), route -> _overlays.get(route));
+    }
+
+    @Test
+    public void colorsAreStoredAsTheyAre() {
+        for (String route : _overlays.keySet()) {
+            int index = _store.indexOf(route);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    assertEquals(_overlays.get(route).getRGB(x, y), _store.getRGB(index, x, y));
+                }
+            }
+            BufferedImage overlay = _store.getOverlay(route);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    assertEquals(_overlays.get(route).getRGB(x, y), overlay.getRGB(x, y));
+                }
+            }
+        }
+        int[] image = new int[WIDTH * HEIGHT];
+        _store.composite(image, Arrays.asList("CD"));
+        assertEquals(_overlays.get("CD").getRGB(1, HEIGHT - 1), image[(HEIGHT - 1) * WIDTH + 1]);
+    }
+
+    @Test
+    public void shadesKeepTheirColorClass() {
+        int ab = _store.indexOf("AB");
+        int cd = _store.indexOf("CD");
+        int abClass = _store.getColorClass(ab, 1, 0);
+        int cdClass = _store.getColorClass(cd, 1, HEIGHT - 1);
+        assertNotEquals(abClass, cdClass);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (y < 40) {
+                    assertEquals(abClass, _store.getColorClass(ab, x, y));
+                }
+                if (y >= 24) {
+                    assertEquals(cdClass, _store.getColorClass(cd, x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pyramidLevelsTakeOneBytePerPixel() {
+        // two bytes for each pixel of the planes
+        assertEquals(2 * WIDTH * (40 + 40), _store.getCapacity());
+        OverlayStore half = _store.downsample();
+        assertEquals(WIDTH / 2 * (20 + 20), half.getCapacity());
+        int[] image = new int[half.getWidth() * half.getHeight()];
+        half.composite(image, Arrays.asList("AB"));
+        assertTrue(image[0] != 0);
+    }
+}